@@ -1,12 +1,5 @@
 package com.github.mike10004.gaetesting;
 
-import com.github.mike10004.gaetesting.SystemSdkResolver.DownloadProgressListener;
-import com.google.common.base.Supplier;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-
 import java.io.File;
 import java.io.IOException;
 
@@ -19,32 +12,36 @@ public abstract class AppEngineSdkResolver {
      */
     public abstract File resolve(File cacheDir) throws IOException;
 
-    private static final DownloadProgressListener inactiveProgressListener = new DownloadProgressListener() {
-        @Override
-        public void serverResponded(HttpResponse response) {
-        }
-
-        @Override
-        public void downloadingToTemporaryFile(HttpEntity entity, File destinationFile) {
-        }
-
-        @Override
-        public void copyingToPermanentFile(File tempFile, File permanentFile) {
-        }
+    public static AppEngineSdkResolver systemHttpClientResolver(String version) {
+        return DownloadingSdkResolver.withSystemHttpClient(version);
+    }
 
-        @Override
-        public void finished(File destinationFile) {
-        }
-    };
+    /**
+     * Returns a resolver that obtains the SDK like {@link #systemHttpClientResolver(String)}
+     * but unpacks only the entries that staging reads, listed in
+     * {@link SystemSdkResolver#STAGING_ENTRIES}. The rest of the SDK stays in the
+     * archive, which makes a cold start much cheaper. The resulting SDK directory
+     * is enough to stage an application but not to run the SDK's own dev server.
+     * @param version the SDK version
+     * @return the resolver
+     */
+    public static AppEngineSdkResolver stagingOnlyResolver(String version) {
+        SystemSdkResolver resolver = DownloadingSdkResolver.withSystemHttpClient(version);
+        resolver.setExtractedEntries(SystemSdkResolver.STAGING_ENTRIES);
+        return resolver;
+    }
 
-    public static AppEngineSdkResolver systemHttpClientResolver(String version) {
-        Supplier<CloseableHttpClient> supplier = new Supplier<CloseableHttpClient>() {
-            @Override
-            public CloseableHttpClient get() {
-                return HttpClients.createSystem();
-            }
-        };
-        return new DownloadingSdkResolver(version, supplier, inactiveProgressListener);
+    /**
+     * Returns a resolver that resolves the SDK through the given resolver at most
+     * once per JVM for each combination of version and cache directory, no matter
+     * how many runners or threads request it.
+     * @param version the SDK version that the delegate resolves, qualified if the
+     *                delegate resolves only part of the SDK
+     * @param delegate the resolver that does the work
+     * @return the memoizing resolver
+     */
+    public static AppEngineSdkResolver memoizing(String version, AppEngineSdkResolver delegate) {
+        return new MemoizingSdkResolver(version, delegate);
     }
 
     public static AppEngineSdkResolver localOnlyResolver(final File directory) {
@@ -56,6 +53,11 @@ public abstract class AppEngineSdkResolver {
                 }
                 return directory;
             }
+
+            @Override
+            public String toString() {
+                return "local " + directory.getAbsolutePath();
+            }
         };
     }
 }
@@ -0,0 +1,229 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Exclusive lock on a cache entry that is shared by threads of this JVM and by
+ * other processes. Other processes are excluded by an OS-level lock on a lock
+ * file, and threads of this JVM by an in-memory lock keyed by the file's path.
+ *
+ * <p>The lock file is never deleted, so every contender locks the same file
+ * and the OS lock alone decides who holds it. The OS releases the lock of a
+ * process that dies, so a crashed holder does not block others. The holder
+ * periodically touches the lock file. If a waiter sees a lock file that has not
+ * been touched within the stale threshold, it logs a warning naming the holder,
+ * which is presumably hung, but keeps waiting: a live holder may still be
+ * writing the entry.
+ */
+public class CacheDirectoryLock implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheDirectoryLock.class);
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_STALE_THRESHOLD_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private static final long INITIAL_POLL_INTERVAL_MILLIS = 25;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 1000;
+
+    private static final ConcurrentMap<String, Semaphore> jvmLocks = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setNameFormat("cache-lock-heartbeat")
+            .setDaemon(true)
+            .build());
+
+    private final File lockFile;
+    private final Semaphore jvmLock;
+    private final RandomAccessFile lockFileHandle;
+    private final FileLock fileLock;
+    private final ScheduledFuture<?> heartbeat;
+
+    private CacheDirectoryLock(File lockFile, Semaphore jvmLock, RandomAccessFile lockFileHandle, FileLock fileLock, long heartbeatIntervalMillis) {
+        this.lockFile = lockFile;
+        this.jvmLock = jvmLock;
+        this.lockFileHandle = lockFileHandle;
+        this.fileLock = fileLock;
+        this.heartbeat = heartbeatExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (!CacheDirectoryLock.this.lockFile.setLastModified(System.currentTimeMillis())) {
+                    log.debug("failed to touch {}", CacheDirectoryLock.this.lockFile);
+                }
+            }
+        }, heartbeatIntervalMillis, heartbeatIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Acquires the lock using the default stale threshold.
+     * @see #acquire(File, long, TimeUnit, long)
+     */
+    public static CacheDirectoryLock acquire(File lockFile, long timeout, TimeUnit unit) throws IOException {
+        return acquire(lockFile, timeout, unit, DEFAULT_STALE_THRESHOLD_MILLIS);
+    }
+
+    /**
+     * Acquires the lock, waiting if another thread or process holds it.
+     * @param lockFile the lock file; created if it does not exist
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @param staleThresholdMillis age of an untouched lock file after which a warning that its holder may be hung is logged
+     * @return the lock, which must be closed to release it
+     * @throws IOException if the lock could not be acquired within the timeout
+     */
+    public static CacheDirectoryLock acquire(File lockFile, long timeout, TimeUnit unit, long staleThresholdMillis) throws IOException {
+        checkNotNull(lockFile, "lockFile");
+        checkArgument(staleThresholdMillis > 0, "staleThresholdMillis must be positive");
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        File parent = lockFile.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("could not create directory " + parent);
+        }
+        Semaphore jvmLock = jvmLockFor(lockFile);
+        try {
+            if (!jvmLock.tryAcquire(remainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+                throw new IOException("timed out waiting for lock held by this JVM: " + lockFile);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + lockFile, e);
+        }
+        boolean acquired = false;
+        try {
+            long pollInterval = INITIAL_POLL_INTERVAL_MILLIS;
+            boolean waitingLogged = false;
+            boolean staleWarningLogged = false;
+            while (true) {
+                CacheDirectoryLock lock = tryAcquire(lockFile, jvmLock, staleThresholdMillis / 4);
+                if (lock != null) {
+                    acquired = true;
+                    return lock;
+                }
+                if (!waitingLogged) {
+                    log.info("waiting for another process to release {}", lockFile);
+                    waitingLogged = true;
+                }
+                long age = System.currentTimeMillis() - lockFile.lastModified();
+                if (!staleWarningLogged && age > staleThresholdMillis) {
+                    log.warn("lock file {} has not been touched for {} ms, but its holder {} still holds the lock; it may be hung", lockFile, age, readHolder(lockFile));
+                    staleWarningLogged = true;
+                }
+                long remaining = remainingNanos(deadline);
+                if (remaining <= 0) {
+                    throw new IOException("timed out waiting for lock held by another process: " + lockFile);
+                }
+                try {
+                    Thread.sleep(Math.min(pollInterval, Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining))));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for " + lockFile, e);
+                }
+                pollInterval = Math.min(MAX_POLL_INTERVAL_MILLIS, pollInterval * 2);
+            }
+        } finally {
+            if (!acquired) {
+                jvmLock.release();
+            }
+        }
+    }
+
+    private static long remainingNanos(long deadline) {
+        return deadline - System.nanoTime();
+    }
+
+    private static Semaphore jvmLockFor(File lockFile) throws IOException {
+        String key = lockFile.getCanonicalPath();
+        Semaphore lock = jvmLocks.get(key);
+        if (lock == null) {
+            Semaphore created = new Semaphore(1);
+            lock = jvmLocks.putIfAbsent(key, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    private static CacheDirectoryLock tryAcquire(File lockFile, Semaphore jvmLock, long heartbeatIntervalMillis) throws IOException {
+        RandomAccessFile handle = new RandomAccessFile(lockFile, "rw");
+        FileLock fileLock = null;
+        try {
+            FileChannel channel = handle.getChannel();
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                return null;
+            }
+            channel.truncate(0);
+            channel.write(ByteBuffer.wrap((ManagementFactory.getRuntimeMXBean().getName() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+            lockFile.setLastModified(System.currentTimeMillis());
+            CacheDirectoryLock lock = new CacheDirectoryLock(lockFile, jvmLock, handle, fileLock, Math.max(1, heartbeatIntervalMillis));
+            fileLock = null;
+            handle = null;
+            return lock;
+        } finally {
+            if (fileLock != null) {
+                fileLock.release();
+            }
+            if (handle != null) {
+                handle.close();
+            }
+        }
+    }
+
+    private static String readHolder(File lockFile) {
+        try {
+            return Files.asCharSource(lockFile, StandardCharsets.UTF_8).readFirstLine();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    public File getLockFile() {
+        return lockFile;
+    }
+
+    /**
+     * Releases the lock. The lock file is left in place, because deleting it
+     * could let two waiters lock different files with the same name.
+     * @throws IOException on I/O failure
+     */
+    @Override
+    public void close() throws IOException {
+        heartbeat.cancel(false);
+        try {
+            fileLock.release();
+        } finally {
+            try {
+                lockFileHandle.close();
+            } finally {
+                jvmLock.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Exception thrown when the dev server process exits before it is ready.
+ */
+public class DevServerExitedException extends GCloudExecutionException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int exitCode;
+    // serializable, like every Guava immutable collection
+    private final ImmutableList<String> lastLines;
+
+    public DevServerExitedException(int exitCode, List<String> lastLines) {
+        super(buildMessage(exitCode, lastLines));
+        this.exitCode = exitCode;
+        this.lastLines = ImmutableList.copyOf(lastLines);
+    }
+
+    private static String buildMessage(int exitCode, List<String> lastLines) {
+        StringBuilder sb = new StringBuilder("dev server exited with code ").append(exitCode).append(" before it was ready");
+        if (lastLines.isEmpty()) {
+            sb.append(" and printed no output");
+        } else {
+            sb.append("; last ").append(lastLines.size()).append(" lines of output:");
+            for (String line : lastLines) {
+                sb.append(System.lineSeparator()).append("    ").append(line);
+            }
+        }
+        return sb.toString();
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    /**
+     * Returns the last lines the process printed, oldest first.
+     * @return the lines
+     */
+    public ImmutableList<String> getLastLines() {
+        return lastLines;
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.mike10004.gaetesting;
+
+import java.io.IOException;
+
+/**
+ * Source of started dev servers that are returned after use.
+ */
+interface DevServerLessor {
+
+    GCloudAsyncRunner lease() throws InterruptedException, IOException;
+
+    void release(GCloudAsyncRunner runner);
+}
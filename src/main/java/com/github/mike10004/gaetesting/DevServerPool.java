@@ -0,0 +1,373 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.net.HostAndPort;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Pool of started dev servers. The pool starts servers in the background until
+ * it holds its target number, counting servers that are leased. Each server
+ * gets its own free ports and its own storage directory, so servers do not
+ * interfere with each other. A released server is {@link Resetter reset} and
+ * returned to the pool, or stopped and replaced if it cannot be reset. A server
+ * that exits while idle is replaced when a lease finds it.
+ *
+ * <p>Use {@link DevServerRule#DevServerRule(DevServerPool)} to lease a server
+ * for a test class; the rule returns it on completion.
+ */
+public class DevServerPool implements Closeable, DevServerLessor {
+
+    private static final Logger log = LoggerFactory.getLogger(DevServerPool.class);
+
+    public static final long DEFAULT_LEASE_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String LOCALHOST = "localhost";
+
+    /**
+     * Restores a released server to a state the next lessee can use.
+     */
+    public interface Resetter {
+
+        /**
+         * Resets a server.
+         * @param runner the runner of the released server
+         * @return true if the server can be leased again, false if it should be stopped and replaced
+         * @throws IOException if resetting fails, in which case the server is replaced
+         */
+        boolean reset(GCloudAsyncRunner runner) throws IOException;
+    }
+
+    private static final Resetter replacingResetter = new Resetter() {
+        @Override
+        public boolean reset(GCloudAsyncRunner runner) {
+            return false;
+        }
+    };
+
+    private static final Resetter reusingResetter = new Resetter() {
+        @Override
+        public boolean reset(GCloudAsyncRunner runner) {
+            return true;
+        }
+    };
+
+    /**
+     * Returns a resetter that replaces every released server with a freshly started one.
+     * @return the resetter
+     */
+    public static Resetter replaceOnRelease() {
+        return replacingResetter;
+    }
+
+    private static final Resetter clearingResetter = new Resetter() {
+        @Override
+        public boolean reset(GCloudAsyncRunner runner) throws IOException {
+            runner.resetState();
+            return true;
+        }
+    };
+
+    /**
+     * Returns a resetter that clears the datastore, memcache and task queues of
+     * released servers and leases them again.
+     * @see GCloudAsyncRunner#resetState()
+     * @return the resetter
+     */
+    public static Resetter clearStateOnRelease() {
+        return clearingResetter;
+    }
+
+    /**
+     * Returns a resetter that leases released servers again as they are.
+     * @return the resetter
+     */
+    public static Resetter reuseOnRelease() {
+        return reusingResetter;
+    }
+
+    private final GCloudAsyncRunnerFactory factory;
+    private final int size;
+    private final Resetter resetter;
+    private final File storageRoot;
+    private final ExecutorService executor;
+    private final Object lock = new Object();
+    private final Deque<GCloudAsyncRunner> idle = new ArrayDeque<>();
+    private int starting;
+    private int leased;
+    private int failures;
+    private Throwable lastFailure;
+    private boolean closed;
+    private volatile long stopTimeoutMillis = GCloudServerStopper.DEFAULT_STOP_TIMEOUT_MILLIS;
+
+    /**
+     * Creates a pool and starts filling it.
+     * @param factory the factory of the runners
+     * @param size the number of servers to keep
+     * @param resetter the resetter of released servers
+     * @throws IOException if the storage directory cannot be created
+     */
+    public DevServerPool(GCloudAsyncRunnerFactory factory, int size, Resetter resetter) throws IOException {
+        this.factory = checkNotNull(factory, "factory");
+        checkArgument(size > 0, "size must be positive: %s", size);
+        this.size = size;
+        this.resetter = checkNotNull(resetter, "resetter");
+        this.storageRoot = Files.createTempDirectory("dev-server-pool").toFile();
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "dev-server-pool-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        synchronized (lock) {
+            refill();
+        }
+    }
+
+    /**
+     * Sets how long a server that is replaced or closed gets to stop gracefully
+     * before its process tree is terminated.
+     * @param timeout the timeout
+     * @param unit the unit of the timeout
+     */
+    public void setStopTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout >= 0, "timeout must be nonnegative: %s", timeout);
+        this.stopTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Leases a started server, waiting up to {@link #DEFAULT_LEASE_TIMEOUT_MILLIS}.
+     * @return the runner of the server
+     * @throws InterruptedException if interrupted while waiting
+     * @throws GCloudExecutionException if no server became available in time or starting one failed
+     */
+    @Override
+    public GCloudAsyncRunner lease() throws InterruptedException {
+        return lease(DEFAULT_LEASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Leases a started server.
+     * @param timeout how long to wait for a server
+     * @param unit the unit of the timeout
+     * @return the runner of the server
+     * @throws InterruptedException if interrupted while waiting
+     * @throws GCloudExecutionException if no server became available in time or starting one failed
+     */
+    public GCloudAsyncRunner lease(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            int failuresBefore = failures;
+            while (true) {
+                checkState(!closed, "pool is closed");
+                GCloudAsyncRunner runner = idle.poll();
+                if (runner != null) {
+                    if (runner.isRunning()) {
+                        leased++;
+                        return runner;
+                    }
+                    log.warn("pooled dev server at {} exited while idle; replacing it", runner.getHost());
+                    killInBackground(runner);
+                    refill();
+                    continue;
+                }
+                if (starting == 0) {
+                    if (failures != failuresBefore) {
+                        throw new GCloudExecutionException("dev server pool could not start a server", lastFailure);
+                    }
+                    refill();
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new GCloudExecutionException("no dev server available within " + timeout + " " + unit);
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+            }
+        }
+    }
+
+    /**
+     * Returns a leased server to the pool. The server is reset in the background,
+     * or stopped if the pool is closed.
+     * @param runner the runner returned by {@link #lease()}
+     */
+    @Override
+    public void release(final GCloudAsyncRunner runner) {
+        checkNotNull(runner, "runner");
+        synchronized (lock) {
+            if (closed) {
+                leased--;
+                stop(runner);
+                return;
+            }
+        }
+        try {
+            executor.execute(newReleaseTask(runner));
+        } catch (RejectedExecutionException e) {
+            // closed since the check above
+            synchronized (lock) {
+                leased--;
+            }
+            stop(runner);
+        }
+    }
+
+    private Runnable newReleaseTask(final GCloudAsyncRunner runner) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                boolean reusable;
+                try {
+                    reusable = runner.isRunning() && resetter.reset(runner);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("failed to reset dev server; replacing it", e);
+                    reusable = false;
+                }
+                synchronized (lock) {
+                    leased--;
+                    if (reusable && !closed) {
+                        idle.add(runner);
+                        lock.notifyAll();
+                        return;
+                    }
+                    refill();
+                }
+                stop(runner);
+            }
+        };
+    }
+
+    /**
+     * Kills the process tree of a server that has exited, in case its children
+     * outlived it. Caller must hold the lock, and the pool must not be closed.
+     */
+    private void killInBackground(final GCloudAsyncRunner runner) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runner.kill();
+            }
+        });
+    }
+
+    /**
+     * Starts servers in the background until the pool holds its target number. Caller must hold the lock.
+     */
+    private void refill() {
+        while (!closed && idle.size() + starting + leased < size) {
+            starting++;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    startServer();
+                }
+            });
+        }
+    }
+
+    private void startServer() {
+        GCloudAsyncRunner runner = null;
+        try {
+            runner = factory.createRunner();
+            runner.setHost(HostAndPort.fromParts(LOCALHOST, findFreePort()).toString());
+            runner.setApi_host(HostAndPort.fromParts(LOCALHOST, findFreePort()).toString());
+            runner.setAdmin_host(HostAndPort.fromParts(LOCALHOST, findFreePort()).toString());
+            File storage = Files.createTempDirectory(storageRoot.toPath(), "storage").toFile();
+            runner.setStorage_path(storage.getAbsolutePath());
+            long start = System.nanoTime();
+            runner.execute();
+            log.info("pooled dev server started at {} in {}ms", runner.getHost(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            log.warn("failed to start pooled dev server", e);
+            if (runner != null) {
+                runner.kill();
+            }
+            synchronized (lock) {
+                starting--;
+                failures++;
+                lastFailure = e;
+                lock.notifyAll();
+            }
+            return;
+        }
+        synchronized (lock) {
+            starting--;
+            if (!closed) {
+                idle.add(runner);
+                lock.notifyAll();
+                return;
+            }
+        }
+        stop(runner);
+    }
+
+    static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            socket.setReuseAddress(true);
+            return socket.getLocalPort();
+        }
+    }
+
+    private void stop(GCloudAsyncRunner runner) {
+        try {
+            StopResult result = runner.stop(stopTimeoutMillis, TimeUnit.MILLISECONDS);
+            log.debug("pooled dev server stop: {}", result);
+        } catch (GCloudExecutionException e) {
+            log.warn("failed to stop pooled dev server", e);
+            runner.kill();
+        }
+    }
+
+    /**
+     * Stops the idle servers and those still starting. Servers that are leased
+     * are stopped when they are released.
+     */
+    @Override
+    public void close() {
+        List<GCloudAsyncRunner> toStop;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            toStop = new ArrayList<>(idle);
+            idle.clear();
+            lock.notifyAll();
+        }
+        for (GCloudAsyncRunner runner : toStop) {
+            stop(runner);
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(stopTimeoutMillis + GCloudServerStopper.TERM_GRACE_MILLIS + GCloudServerStopper.KILL_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                log.warn("dev server pool tasks still running after close");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        FileUtils.deleteQuietly(storageRoot);
+    }
+}
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -20,6 +21,7 @@ public class DevServerRule extends ExternalResource {
     private static final Logger log = LoggerFactory.getLogger(DevServerRule.class);
 
     private final GCloudAsyncRunnerFactory asyncRunnerFactory;
+    private final DevServerLessor lessor;
     private GCloudAsyncRunner asyncRunner;
 
     public DevServerRule(File applicationDirectory, File stagingDirectory, String javaVersion, Supplier<String> cloudSdkDetector, AppEngineSdkResolver appengineSdkResolver) {
@@ -29,6 +31,34 @@ public class DevServerRule extends ExternalResource {
     public DevServerRule(GCloudAsyncRunnerFactory asyncRunnerFactory) {
         super();
         this.asyncRunnerFactory = checkNotNull(asyncRunnerFactory, "asyncRunnerFactory");
+        this.lessor = null;
+    }
+
+    /**
+     * Creates a rule that leases an already started server from a pool and
+     * releases it afterwards. The server is not passed to
+     * {@link #configureAsyncRunner(GCloudAsyncRunner)}, because it has already been started.
+     * @param pool the pool
+     */
+    public DevServerRule(DevServerPool pool) {
+        this((DevServerLessor) pool);
+    }
+
+    /**
+     * Creates a rule that uses a shared server, starting it if it is not running.
+     * The server is not passed to {@link #configureAsyncRunner(GCloudAsyncRunner)};
+     * configure shared servers through the factory.
+     * @param sharedServer the shared server
+     * @see GCloudAsyncRunnerFactory.Builder#sharedRule()
+     */
+    public DevServerRule(SharedDevServer sharedServer) {
+        this((DevServerLessor) sharedServer);
+    }
+
+    private DevServerRule(DevServerLessor lessor) {
+        super();
+        this.asyncRunnerFactory = null;
+        this.lessor = checkNotNull(lessor, "lessor");
     }
 
     public static GCloudAsyncRunnerFactory.Builder factoryBuilder() {
@@ -38,6 +68,10 @@ public class DevServerRule extends ExternalResource {
     @Override
     protected synchronized void before() throws Throwable {
         checkState(asyncRunner == null, "async runner already created");
+        if (lessor != null) {
+            asyncRunner = lessor.lease();
+            return;
+        }
         asyncRunner = asyncRunnerFactory.createRunner();
         configureAsyncRunner(asyncRunner);
         asyncRunner.execute();
@@ -52,16 +86,68 @@ public class DevServerRule extends ExternalResource {
         if (asyncRunner == null) {
             return;
         }
-        String adminHostString = asyncRunner.getAdmin_host();
-        HostAndPort adminHost = adminHostString == null ? HostAndPort.fromHost("localhost") : HostAndPort.fromString(adminHostString);
-        GCloudServerStopper stopper = new GCloudServerStopper(adminHost);
+        RequestLogStats requestStats = asyncRunner.getRequestLogStats();
+        if (requestStats != null) {
+            reportRequestStats(requestStats);
+        }
+        if (lessor != null) {
+            lessor.release(asyncRunner);
+            asyncRunner = null;
+            return;
+        }
         try {
-            stopper.execute();
-        } catch (IOException e) {
+            StopResult result = asyncRunner.stop(GCloudServerStopper.DEFAULT_STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            log.info("dev server stop: {}", result);
+        } catch (GCloudExecutionException e) {
             log.error("failed to stop gcloud", e);
         }
     }
 
+    /**
+     * Returns the recent output of the dev server. Tests can use it to wait for
+     * a side effect that the server logs.
+     * @return the output history
+     */
+    public OutputHistory getOutput() {
+        checkState(asyncRunner != null, "before() has not been invoked");
+        OutputHistory output = asyncRunner.getOutputHistory();
+        checkState(output != null, "dev server not started");
+        return output;
+    }
+
+    /**
+     * Returns the statistics of the requests the dev server has logged so far.
+     * @return the statistics
+     */
+    public RequestLogStats getRequestStats() {
+        checkState(asyncRunner != null, "before() has not been invoked");
+        RequestLogStats stats = asyncRunner.getRequestLogStats();
+        checkState(stats != null, "dev server not started");
+        return stats;
+    }
+
+    /**
+     * Reports request statistics before the server is stopped. By default, logs
+     * a table of per-endpoint counts and latencies. Override to write the
+     * statistics somewhere else.
+     * @param stats the statistics
+     */
+    protected void reportRequestStats(RequestLogStats stats) {
+        if (!stats.isEmpty()) {
+            log.info("dev server requests:{}{}", System.lineSeparator(), stats.toReport());
+        }
+    }
+
+    /**
+     * Clears the datastore, memcache and task queues of the running server.
+     * @throws IOException if the server could not be reset
+     * @see GCloudAsyncRunner#resetState()
+     */
+    public void resetState() throws IOException {
+        checkState(asyncRunner != null, "before() has not been invoked");
+        asyncRunner.resetState();
+    }
+
     public HostAndPort getHost() {
         checkState(asyncRunner != null, "before() has not been invoked");
         String host = asyncRunner.getHost();
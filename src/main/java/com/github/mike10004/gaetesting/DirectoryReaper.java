@@ -0,0 +1,226 @@
+package com.github.mike10004.gaetesting;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Deletes directories in the background. A directory to be deleted is first
+ * renamed aside to a sibling whose name contains {@value #REAP_MARKER}, which
+ * frees its path at once, and is then deleted on one low-priority daemon thread.
+ * Directories renamed aside by an earlier JVM that exited before deleting
+ * them are deleted the first time a directory in the same parent is reaped.
+ *
+ * <p>The reaper can also sweep a parent directory for orphaned directories,
+ * such as the temporary staging directories of earlier runs.
+ */
+public class DirectoryReaper {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryReaper.class);
+
+    static final String REAP_MARKER = ".reap-";
+
+    /**
+     * Name prefix of the temporary staging directories that runners create.
+     */
+    public static final String STAGING_TEMP_PREFIX = "appengine-staging";
+
+    /**
+     * Minimum age of an orphaned temporary staging directory before it is swept.
+     */
+    public static final long DEFAULT_ORPHAN_MIN_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final DirectoryReaper defaultInstance = new DirectoryReaper();
+
+    private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+    private final Set<File> sweptParents = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+    private final AtomicBoolean stagingTempSwept = new AtomicBoolean();
+    private final Object lock = new Object();
+    private int pending;
+    private Thread thread;
+
+    /**
+     * Returns the reaper shared by all runners in this JVM.
+     * @return the shared reaper
+     */
+    public static DirectoryReaper getDefault() {
+        return defaultInstance;
+    }
+
+    /**
+     * Renames a directory aside and schedules its deletion. If the directory
+     * cannot be renamed, for example because the file system does not support
+     * atomic moves, it is deleted before this method returns.
+     * @param directory the directory; nothing happens if it does not exist
+     * @throws IOException if the directory could be neither renamed nor deleted
+     */
+    public void reap(File directory) throws IOException {
+        if (!directory.exists()) {
+            return;
+        }
+        final File parent = directory.getAbsoluteFile().getParentFile();
+        File aside = new File(parent, directory.getName() + REAP_MARKER + System.nanoTime());
+        try {
+            java.nio.file.Files.move(directory.toPath(), aside.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("could not rename {} aside, so deleting it in place: {}", directory, e.toString());
+            FileUtils.deleteDirectory(directory);
+            return;
+        }
+        schedule(deletion(aside));
+        if (sweptParents.add(parent)) {
+            schedule(new Runnable() {
+                @Override
+                public void run() {
+                    File[] leftovers = parent.listFiles();
+                    if (leftovers != null) {
+                        for (File leftover : leftovers) {
+                            if (leftover.getName().contains(REAP_MARKER) && leftover.isDirectory()) {
+                                delete(leftover);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Schedules a sweep of a parent directory that reaps each subdirectory
+     * whose name starts with a prefix and that has not been modified for a
+     * minimum time.
+     * @param parent the parent directory
+     * @param prefix the name prefix
+     * @param minAge the minimum time since the last modification
+     * @param unit the unit of the minimum age
+     */
+    public void sweep(final File parent, final String prefix, long minAge, TimeUnit unit) {
+        checkNotNull(parent, "parent");
+        checkNotNull(prefix, "prefix");
+        checkArgument(minAge >= 0, "minAge must be nonnegative: %s", minAge);
+        final long minAgeMillis = unit.toMillis(minAge);
+        schedule(new Runnable() {
+            @Override
+            public void run() {
+                File[] children = parent.listFiles();
+                if (children == null) {
+                    return;
+                }
+                long now = System.currentTimeMillis();
+                for (File child : children) {
+                    String name = child.getName();
+                    if (name.startsWith(prefix) && !name.contains(REAP_MARKER) && child.isDirectory() && now - child.lastModified() >= minAgeMillis) {
+                        log.debug("sweeping orphaned directory {}", child);
+                        try {
+                            reap(child);
+                        } catch (IOException e) {
+                            log.debug("could not sweep {}: {}", child, e.toString());
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Sweeps the system temporary directory for the temporary staging
+     * directories of earlier runs, once per reaper.
+     * @see #DEFAULT_ORPHAN_MIN_AGE_MILLIS
+     */
+    public void sweepOrphanedStagingDirectories() {
+        if (stagingTempSwept.compareAndSet(false, true)) {
+            sweep(FileUtils.getTempDirectory(), STAGING_TEMP_PREFIX, DEFAULT_ORPHAN_MIN_AGE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Waits until every scheduled deletion and sweep is done.
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if the reaper is idle, false if the timeout elapsed first
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (pending > 0) {
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return false;
+                }
+                lock.wait(remainingMillis);
+            }
+            return true;
+        }
+    }
+
+    private Runnable deletion(final File directory) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                delete(directory);
+            }
+        };
+    }
+
+    private static void delete(File directory) {
+        try {
+            FileUtils.deleteDirectory(directory);
+        } catch (IOException e) {
+            log.debug("could not delete {}: {}", directory, e.toString());
+        }
+    }
+
+    private void schedule(Runnable task) {
+        synchronized (lock) {
+            pending++;
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        work();
+                    }
+                }, "directory-reaper");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.start();
+            }
+        }
+        tasks.add(task);
+    }
+
+    private void work() {
+        while (true) {
+            Runnable task;
+            try {
+                task = tasks.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.warn("directory reaper task failed", e);
+            } finally {
+                synchronized (lock) {
+                    pending--;
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+}
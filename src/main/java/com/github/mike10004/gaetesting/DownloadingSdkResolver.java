@@ -5,6 +5,7 @@ import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.io.Files;
 import com.google.common.net.HttpHeaders;
 import com.google.common.net.MediaType;
@@ -15,14 +16,17 @@ import org.apache.http.HttpStatus;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 class DownloadingSdkResolver extends SystemSdkResolver {
@@ -32,48 +36,139 @@ class DownloadingSdkResolver extends SystemSdkResolver {
             "1.9.44", "70fd66b394348fbb6d6e1863447b3629364e049aca8dd4c1af507051b9411b44");
     private final Supplier<CloseableHttpClient> httpClientSupplier;
     private final DownloadProgressListener downloadProgressListener;
+    private int downloadSegments = 1;
 
     public DownloadingSdkResolver(String version, Supplier<CloseableHttpClient> httpClientSupplier, DownloadProgressListener downloadProgressListener) {
         super(version);
         this.httpClientSupplier = checkNotNull(httpClientSupplier);
         this.downloadProgressListener = checkNotNull(downloadProgressListener);
+        if (downloadProgressListener instanceof TransferProgressListener) {
+            setTransferProgressListener((TransferProgressListener) downloadProgressListener);
+        }
+    }
+
+    /**
+     * Creates a resolver that downloads with the system HTTP client and logs transfer progress.
+     * @param version the SDK version
+     * @return the resolver
+     */
+    static DownloadingSdkResolver withSystemHttpClient(String version) {
+        Supplier<CloseableHttpClient> supplier = new Supplier<CloseableHttpClient>() {
+            @Override
+            public CloseableHttpClient get() {
+                return HttpClients.createSystem();
+            }
+        };
+        return new DownloadingSdkResolver(version, supplier, new LoggingTransferProgressListener());
+    }
+
+    /**
+     * Sets the maximum number of parallel range requests used to download the SDK
+     * archive. With more than one segment, an interrupted download is resumed on
+     * the next attempt. If the server does not support range requests, the archive
+     * is downloaded with a single request.
+     * @param downloadSegments the maximum number of segments; 1 disables segmented downloads
+     */
+    public void setDownloadSegments(int downloadSegments) {
+        checkArgument(downloadSegments > 0, "downloadSegments must be positive: %s", downloadSegments);
+        this.downloadSegments = downloadSegments;
+    }
+
+    protected int getDownloadSegments() {
+        return downloadSegments;
+    }
+
+    protected SegmentedDownloader createSegmentedDownloader() {
+        return new SegmentedDownloader(httpClientSupplier, downloadProgressListener, getDownloadSegments(), SegmentedDownloader.DEFAULT_MIN_SEGMENT_SIZE);
     }
 
     @Override
     protected File downloadRemoteFile(URI uri, File downloadDirectory) throws IOException {
+        if (getDownloadSegments() > 1) {
+            File sdkArchive = downloadSegmented(uri, downloadDirectory);
+            if (sdkArchive != null) {
+                return sdkArchive;
+            }
+        }
         File sdkArchive;
         try (CloseableHttpClient client = httpClientSupplier.get()) {
             HttpGet request = new HttpGet(uri);
             sdkArchive = new File(downloadDirectory, formatFilename(version));
-            ResponseHandler<File> downloader = new DownloadResponseHandler(sdkArchive, getTempDirectory().toPath());
+            ResponseHandler<File> downloader = new DownloadResponseHandler(sdkArchive);
             File downloadResult = client.execute(request, downloader);
             if (!sdkArchive.getCanonicalFile().equals(downloadResult.getCanonicalFile())) {
                 throw new IOException(String.format("files must be same: %s != %s", sdkArchive, downloadResult));
             }
         }
-        checkIntegrity(version, sdkArchive);
         return sdkArchive;
     }
 
+    private File downloadSegmented(URI uri, File downloadDirectory) throws IOException {
+        File sdkArchive = new File(downloadDirectory, formatFilename(version));
+        File partFile = new File(downloadDirectory, sdkArchive.getName() + ".part");
+        if (!createSegmentedDownloader().download(uri, partFile)) {
+            return null;
+        }
+        HashCode sha256 = hashArchive(partFile);
+        try {
+            checkIntegrity(version, partFile, sha256);
+        } catch (IOException e) {
+            if (!partFile.delete()) {
+                Logger.getLogger(AppEngineSdkResolver.class.getName()).log(Level.WARNING, "failed to delete {0}", partFile);
+            }
+            throw e;
+        }
+        downloadProgressListener.copyingToPermanentFile(partFile, sdkArchive);
+        moveIntoPlace(partFile, sdkArchive);
+        rememberArchiveHash(sdkArchive, sha256);
+        downloadProgressListener.finished(sdkArchive);
+        return sdkArchive;
+    }
+
+    @Override
+    protected String getExpectedArchiveSha256() {
+        return APP_ENGINE_SDK_ZIP_SHA256SUMS.get(version);
+    }
+
+    /**
+     * Checks the integrity of an archive by hashing its contents.
+     * @param version the SDK version
+     * @param zipFile the archive
+     * @throws IOException if the archive could not be read or its hash is not the expected hash
+     */
     protected void checkIntegrity(String version, File zipFile) throws IOException {
+        checkIntegrity(version, zipFile, hashArchive(zipFile));
+    }
+
+    /**
+     * Checks the integrity of an archive whose SHA-256 hash has already been computed.
+     * @param version the SDK version
+     * @param zipFile the archive
+     * @param sha256 the SHA-256 hash of the archive contents
+     * @throws IOException if the hash is not the expected hash
+     */
+    protected void checkIntegrity(String version, File zipFile, HashCode sha256) throws IOException {
         String knownHash = APP_ENGINE_SDK_ZIP_SHA256SUMS.get(version);
         if (knownHash != null) {
-            HashCode hashCode = Files.asByteSource(zipFile).hash(Hashing.sha256());
-            if (!knownHash.equals(hashCode.toString().toLowerCase())) {
-                throw new IOException("unexpected sha256sum of downloaded file: " + hashCode);
+            if (!knownHash.equals(sha256.toString().toLowerCase())) {
+                throw new IOException("unexpected sha256sum of downloaded file: " + sha256);
             }
         }
     }
 
+    /**
+     * Response handler that writes the response content to a temporary file in the
+     * destination directory, hashing the bytes as they are written. The temporary
+     * file is checked with {@link #checkIntegrity(String, File, HashCode)} and then
+     * moved to the destination, so a bad download never appears at the destination.
+     */
     @SuppressWarnings("AppEngineForbiddenCode")
     protected class DownloadResponseHandler implements ResponseHandler<File> {
 
-        private final java.nio.file.Path temporaryDirectory;
         private final File destinationFile;
 
-        private DownloadResponseHandler(File destinationFile, java.nio.file.Path temporaryDirectory) {
+        private DownloadResponseHandler(File destinationFile) {
             this.destinationFile = checkNotNull(destinationFile);
-            this.temporaryDirectory = temporaryDirectory;
         }
 
         @Override
@@ -82,7 +177,6 @@ class DownloadingSdkResolver extends SystemSdkResolver {
             if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
                 throw new IOException("response status " + response.getStatusLine());
             }
-            File tempFile = File.createTempFile("appengine-sdk", ".download", temporaryDirectory.toFile());
             Header contentTypeHeader = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
             if (contentTypeHeader != null) {
                 String value = contentTypeHeader.getValue();
@@ -93,16 +187,24 @@ class DownloadingSdkResolver extends SystemSdkResolver {
                     }
                 }
             }
-            HttpEntity entity = response.getEntity();
-            downloadProgressListener.downloadingToTemporaryFile(entity, tempFile);
-            try (InputStream inputStream = entity.getContent()) {
-                Files.asByteSink(tempFile).writeFrom(inputStream);
-            }
-            downloadProgressListener.copyingToPermanentFile(tempFile, destinationFile);
+            // same directory as the destination, so the final move is a rename on the same filesystem
+            File tempFile = File.createTempFile(destinationFile.getName(), ".download", destinationFile.getParentFile());
             try {
-                Files.copy(tempFile, destinationFile);
+                HttpEntity entity = response.getEntity();
+                downloadProgressListener.downloadingToTemporaryFile(entity, tempFile);
+                HashCode sha256;
+                TransferMeter meter = TransferMeter.start(getTransferProgressListener(), TransferPhase.DOWNLOAD, destinationFile.getName(), entity.getContentLength());
+                try (HashingInputStream inputStream = new HashingInputStream(Hashing.sha256(), meter.wrap(entity.getContent()))) {
+                    Files.asByteSink(tempFile).writeFrom(inputStream);
+                    sha256 = inputStream.hash();
+                }
+                meter.finish();
+                checkIntegrity(version, tempFile, sha256);
+                downloadProgressListener.copyingToPermanentFile(tempFile, destinationFile);
+                moveIntoPlace(tempFile, destinationFile);
+                rememberArchiveHash(destinationFile, sha256);
             } finally {
-                if (!tempFile.delete()) {
+                if (tempFile.exists() && !tempFile.delete()) {
                     Logger.getLogger(AppEngineSdkResolver.class.getName()).log(Level.WARNING, "failed to delete {0}", tempFile);
                 }
             }
@@ -112,4 +214,12 @@ class DownloadingSdkResolver extends SystemSdkResolver {
 
     }
 
+    static void moveIntoPlace(File source, File destination) throws IOException {
+        try {
+            java.nio.file.Files.move(source.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            java.nio.file.Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
 }
@@ -4,15 +4,30 @@
 package com.github.mike10004.gaetesting;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkState;
 
 public class GCloudAsyncRunner extends GCloudDevServerBase {
 
+    private static final long KILL_WAIT_MILLIS = 2000;
+    private static final int RESET_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * API stubs whose state {@link #resetState()} clears.
+     */
+    public static final ImmutableList<String> RESET_STUBS = ImmutableList.of("datastore_v3", "memcache", "taskqueue");
+
+    private volatile Process process;
+
     public GCloudAsyncRunner(String application_directory, String staging_directory, String javaVersion, Supplier<String> cloudSdkDetector, AppEngineSdkResolver appengineSdkResolver) {
         super(application_directory, staging_directory, javaVersion, cloudSdkDetector, appengineSdkResolver);
     }
@@ -39,4 +54,91 @@ public class GCloudAsyncRunner extends GCloudDevServerBase {
         startCommand(appDirFile, devAppServerCommand, WaitDirective.WAIT_SERVER_STARTED);
     }
 
+    @Override
+    protected void processStarted(Process process) {
+        this.process = process;
+    }
+
+    /**
+     * Returns the dev server process.
+     * @return the process, or null if the server has not been started
+     */
+    public Process getProcess() {
+        return process;
+    }
+
+    public boolean isRunning() {
+        Process p = process;
+        return p != null && !ProcessTrees.hasExited(p);
+    }
+
+    /**
+     * Stops the dev server, first by asking it to quit and then, if it has not
+     * exited by the deadline, by signalling its process tree.
+     * @param timeout how long to wait for a graceful stop
+     * @param unit the unit of the timeout
+     * @return the result
+     * @see GCloudServerStopper#stop(long, TimeUnit)
+     */
+    public StopResult stop(long timeout, TimeUnit unit) {
+        String adminHostString = getAdmin_host();
+        HostAndPort adminHost = adminHostString == null ? HostAndPort.fromHost("localhost") : HostAndPort.fromString(adminHostString);
+        Process p = process;
+        StopResult result = new GCloudServerStopper(adminHost, getServerHost(), p).stop(timeout, unit);
+        if (p != null) {
+            ProcessTrees.cancelKillOnExit(p);
+        }
+        return result;
+    }
+
+    /**
+     * Clears the local datastore, memcache and task queues of the running
+     * server, without restarting it, through the {@code /clear} handler of the
+     * dev server's API server. The API server's port must have been set with
+     * {@link #setApi_host(String)}, because otherwise the dev server picks one at random.
+     * @throws IOException if the API server cannot be reached or refuses
+     */
+    public void resetState() throws IOException {
+        String apiHostString = getApi_host();
+        checkState(apiHostString != null, "api_host must be set to reset state");
+        HostAndPort apiHost = HostAndPort.fromString(apiHostString);
+        checkState(apiHost.hasPort(), "api_host must include a port to reset state: %s", apiHostString);
+        StringBuilder query = new StringBuilder();
+        for (String stub : RESET_STUBS) {
+            query.append(query.length() == 0 ? '?' : '&').append("stub=").append(stub);
+        }
+        URL url = new URL("http", apiHost.getHost(), apiHost.getPort(), "/clear" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setConnectTimeout(RESET_TIMEOUT_MILLIS);
+            connection.setReadTimeout(RESET_TIMEOUT_MILLIS);
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("clearing state at " + url + " failed with status " + status);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Kills the dev server process and all of its descendants without asking it to quit.
+     */
+    public void kill() {
+        Process p = process;
+        if (p == null) {
+            return;
+        }
+        ProcessTrees.signal(p, ProcessTrees.Signal.KILL);
+        long deadline = System.currentTimeMillis() + KILL_WAIT_MILLIS;
+        try {
+            while (!ProcessTrees.hasExited(p) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        ProcessTrees.cancelKillOnExit(p);
+    }
+
 }
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -77,12 +78,18 @@ public abstract class GCloudAsyncRunnerFactory {
     }
 
     private static final Supplier<File> systemTempStagingDirectorySupplier = new Supplier<File>() {
+        @Override
+        public String toString() {
+            return "new temporary directory";
+        }
+
         @Override
         public File get() {
+            DirectoryReaper.getDefault().sweepOrphanedStagingDirectories();
             try {
-                Path path = java.nio.file.Files.createTempDirectory("appengine-staging");
+                Path path = java.nio.file.Files.createTempDirectory(DirectoryReaper.STAGING_TEMP_PREFIX);
                 LoggerFactory.getLogger(GCloudAsyncRunnerFactory.class)
-                        .warn("staging in directory that will not be automatically cleaned up: {}", path);
+                        .info("staging in temporary directory {}, which a run a day or more later will delete", path);
                 return path.toFile();
             } catch (IOException e) {
                 throw new GCloudExecutionException(e);
@@ -90,14 +97,30 @@ public abstract class GCloudAsyncRunnerFactory {
         }
     };
 
+    private static Supplier<File> stagingCacheSupplier(final StagingCache stagingCache, final Supplier<File> applicationDirectorySupplier, final String javaVersion) {
+        return new Supplier<File>() {
+            @Override
+            public File get() {
+                try {
+                    return stagingCache.stagingDirectoryFor(applicationDirectorySupplier.get(), Builder.getAppEngineTargetVersion(), javaVersion);
+                } catch (IOException e) {
+                    throw new GCloudExecutionException("could not look up staging directory in " + stagingCache.getRootDirectory(), e);
+                }
+            }
+        };
+    }
+
     @SuppressWarnings("unused")
     public static class Builder {
 
         private final Supplier<File> applicationDirectorySupplier;
-        private Supplier<File> stagingDirectorySupplier = systemTempStagingDirectorySupplier;
+        private Supplier<File> stagingDirectorySupplier;
+        private StagingCache stagingCache;
         private String javaVersion = DEFAULT_JAVA_VERSION;
         private Supplier<String> cloudSdkDetector;
         private AppEngineSdkResolver appengineSdkResolver;
+        private boolean stagingOnlyAppengineSdk;
+        private int sdkDownloadSegments = 1;
         private List<Configurator> configurators = new ArrayList<>();
 
         protected Builder(Supplier<File> applicationDirectorySupplier) {
@@ -121,6 +144,48 @@ public abstract class GCloudAsyncRunnerFactory {
             });
         }
 
+        /**
+         * Builds a rule that uses a server shared with every other rule in the
+         * JVM that has the same configuration. The server keeps running between
+         * users until the JVM exits.
+         * @see #sharedRule(DevServerPool.Resetter, long, TimeUnit)
+         * @return the rule
+         */
+        public DevServerRule sharedRule() {
+            return sharedRule(DevServerPool.reuseOnRelease(), SharedDevServer.KEEP_UNTIL_EXIT, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Builds a rule that uses a server shared with every other rule in the
+         * JVM that has the same configuration. The configuration is the
+         * application directory, the Java version, the Cloud SDK location,
+         * the App Engine SDK resolver, the staging directory choice and the
+         * configurators, each in its string form, so a custom
+         * {@link Configurator}, Cloud SDK detector, resolver or staging
+         * directory supplier should override {@code toString()} to describe
+         * its effect if its servers are to be shared.
+         * @param resetter the resetter that runs when the last user releases the server
+         * @param idleTimeout how long an unused server keeps running, or {@link SharedDevServer#KEEP_UNTIL_EXIT}
+         * @param unit the unit of the idle timeout
+         * @return the rule
+         */
+        public DevServerRule sharedRule(DevServerPool.Resetter resetter, long idleTimeout, TimeUnit unit) {
+            return new DevServerRule(SharedDevServer.forKey(configurationKey(), makeFactory(), resetter, idleTimeout, unit));
+        }
+
+        String configurationKey() {
+            StringBuilder key = new StringBuilder();
+            key.append(applicationDirectorySupplier.get().getAbsolutePath()).append(';').append(javaVersion);
+            key.append(";cloudSdk=").append(cloudSdkDetector == null ? "default" : cloudSdkDetector);
+            key.append(";appengineSdk=").append(appengineSdkResolver == null ? defaultAppengineSdkDescription() : appengineSdkResolver);
+            key.append(";staging=").append(stagingDirectorySupplier != null ? stagingDirectorySupplier
+                    : "cache " + (stagingCache == null ? "default" : stagingCache.getRootDirectory().getAbsolutePath()));
+            for (Configurator configurator : configurators) {
+                key.append(';').append(configurator);
+            }
+            return key.toString();
+        }
+
         private static final Function<Builder, GCloudAsyncRunnerFactory> factoryTransform = new Function<Builder, GCloudAsyncRunnerFactory>() {
             @Override
             public GCloudAsyncRunnerFactory apply(Builder b) {
@@ -129,11 +194,18 @@ public abstract class GCloudAsyncRunnerFactory {
         };
 
         private GCloudAsyncRunnerFactory makeFactory() {
+            // defaults are not assigned to the fields, so that the configuration key stays the same
+            Supplier<String> cloudSdkDetector = this.cloudSdkDetector;
             if (cloudSdkDetector == null) {
                 cloudSdkDetector = GCloudBase.defaultCloudSdkLocationSupplier;
             }
+            AppEngineSdkResolver appengineSdkResolver = this.appengineSdkResolver;
             if (appengineSdkResolver == null) {
-                appengineSdkResolver = AppEngineSdkResolver.systemHttpClientResolver(getAppEngineTargetVersion());
+                appengineSdkResolver = defaultAppengineSdkResolver();
+            }
+            Supplier<File> stagingDirectorySupplier = this.stagingDirectorySupplier;
+            if (stagingDirectorySupplier == null) {
+                stagingDirectorySupplier = stagingCacheSupplier(stagingCache == null ? StagingCache.inTempDirectory() : stagingCache, applicationDirectorySupplier, javaVersion);
             }
             return new PredefinedFactory(applicationDirectorySupplier, stagingDirectorySupplier, javaVersion, cloudSdkDetector, appengineSdkResolver) {
                 @Override
@@ -175,6 +247,11 @@ public abstract class GCloudAsyncRunnerFactory {
                 public String get() {
                     return cloudSdkDirectory.getAbsolutePath();
                 }
+
+                @Override
+                public String toString() {
+                    return cloudSdkDirectory.getAbsolutePath();
+                }
             });
         }
 
@@ -183,6 +260,21 @@ public abstract class GCloudAsyncRunnerFactory {
             return this;
         }
 
+        private String defaultAppengineSdkDescription() {
+            return "download " + getAppEngineTargetVersion() + (stagingOnlyAppengineSdk ? "+staging" : "");
+        }
+
+        AppEngineSdkResolver defaultAppengineSdkResolver() {
+            String sdkVersion = getAppEngineTargetVersion();
+            DownloadingSdkResolver resolver = DownloadingSdkResolver.withSystemHttpClient(sdkVersion);
+            resolver.setDownloadSegments(sdkDownloadSegments);
+            if (stagingOnlyAppengineSdk) {
+                resolver.setExtractedEntries(SystemSdkResolver.STAGING_ENTRIES);
+                return AppEngineSdkResolver.memoizing(sdkVersion + "+staging", resolver);
+            }
+            return AppEngineSdkResolver.memoizing(sdkVersion, resolver);
+        }
+
         public Builder withAppengineSdkResolver(AppEngineSdkResolver appengineSdkResolver) {
             this.appengineSdkResolver = checkNotNull(appengineSdkResolver);
             return this;
@@ -193,12 +285,65 @@ public abstract class GCloudAsyncRunnerFactory {
             return this;
         }
 
+        /**
+         * Unpacks only the parts of the App Engine SDK that staging reads.
+         * @see AppEngineSdkResolver#stagingOnlyResolver(String)
+         * @return this builder
+         */
+        public Builder withStagingOnlyAppengineSdk() {
+            this.stagingOnlyAppengineSdk = true;
+            this.appengineSdkResolver = null;
+            return this;
+        }
+
+        /**
+         * Downloads the App Engine SDK archive, if it must be downloaded, in up
+         * to the given number of parallel range requests, and resumes an
+         * interrupted download on the next attempt. Applies to the default
+         * resolver, not to one set by {@link #withAppengineSdkResolver(AppEngineSdkResolver)}.
+         * @param segments the maximum number of segments
+         * @return this builder
+         * @see DownloadingSdkResolver#setDownloadSegments(int)
+         */
+        public Builder withSegmentedSdkDownload(int segments) {
+            checkArgument(segments > 0, "segments must be positive: %s", segments);
+            this.sdkDownloadSegments = segments;
+            return this;
+        }
+
+        /**
+         * Stages in a directory of the given staging cache. This is the
+         * default, with the cache in the system temporary directory.
+         * @param stagingCache the cache
+         * @return this builder
+         */
+        public Builder stagingInCache(StagingCache stagingCache) {
+            this.stagingCache = checkNotNull(stagingCache, "stagingCache");
+            this.stagingDirectorySupplier = null;
+            return this;
+        }
+
+        /**
+         * Stages in a new temporary directory for every runner. Such
+         * directories are swept by a {@link DirectoryReaper} in a later run
+         * once they are a day old.
+         * @return this builder
+         */
+        public Builder stagingInNewTempDirectory() {
+            return stagingIn(systemTempStagingDirectorySupplier);
+        }
+
         public Builder stagingIn(File stagingDirectory) {
             return stagingIn(Suppliers.ofInstance(checkNotNull(stagingDirectory, "stagingDirectory")));
         }
 
         public Builder stagingInNewFolder(final TemporaryFolder temporaryFolder) {
             return stagingIn(new Supplier<File>() {
+                @Override
+                public String toString() {
+                    return "new folder of " + temporaryFolder;
+                }
+
                 @Override
                 public File get() {
                     try {
@@ -216,6 +361,31 @@ public abstract class GCloudAsyncRunnerFactory {
                 public void configure(GCloudAsyncRunner instance) {
                     instance.setHost(host.toString());
                 }
+
+                @Override
+                public String toString() {
+                    return "host=" + host;
+                }
+            });
+        }
+
+        /**
+         * Sets the host and port of the API server. A fixed API port is required
+         * by {@link GCloudAsyncRunner#resetState()}.
+         * @param apiHost the host and port
+         * @return this builder
+         */
+        public Builder withApiHost(final HostAndPort apiHost) {
+            return configuredBy(new Configurator() {
+                @Override
+                public void configure(GCloudAsyncRunner instance) {
+                    instance.setApi_host(apiHost.toString());
+                }
+
+                @Override
+                public String toString() {
+                    return "apiHost=" + apiHost;
+                }
             });
         }
 
@@ -225,6 +395,108 @@ public abstract class GCloudAsyncRunnerFactory {
                 public void configure(GCloudAsyncRunner instance) {
                     instance.setAdmin_host(adminHost.toString());
                 }
+
+                @Override
+                public String toString() {
+                    return "adminHost=" + adminHost;
+                }
+            });
+        }
+
+        /**
+         * Sets the probe that decides when the dev server is ready to serve requests.
+         * @param probe the probe
+         * @see ReadinessProbes
+         * @return this builder
+         */
+        public Builder waitingFor(final ReadinessProbe probe) {
+            checkNotNull(probe, "probe");
+            return configuredBy(new Configurator() {
+                @Override
+                public void configure(GCloudAsyncRunner instance) {
+                    instance.setReadinessProbe(probe);
+                }
+
+                @Override
+                public String toString() {
+                    return "readinessProbe=" + probe;
+                }
+            });
+        }
+
+        public Builder readinessTimeout(final long timeout, final TimeUnit unit) {
+            checkArgument(timeout > 0, "timeout must be positive: %s", timeout);
+            return configuredBy(new Configurator() {
+                @Override
+                public void configure(GCloudAsyncRunner instance) {
+                    instance.setReadinessTimeout(timeout, unit);
+                }
+
+                @Override
+                public String toString() {
+                    return "readinessTimeout=" + timeout + " " + unit;
+                }
+            });
+        }
+
+        /**
+         * Sets how many modules of an EAR application are staged at once when
+         * {@link #stagingInWorkerProcesses() staging in worker processes}.
+         * Staging in this JVM always stages one module at a time.
+         * @param maxThreads the number of modules
+         * @return this builder
+         */
+        public Builder maxStagingThreads(final int maxThreads) {
+            checkArgument(maxThreads > 0, "maxThreads must be positive: %s", maxThreads);
+            return configuredBy(new Configurator() {
+                @Override
+                public void configure(GCloudAsyncRunner instance) {
+                    instance.setMaxStagingThreads(maxThreads);
+                }
+
+                @Override
+                public String toString() {
+                    return "maxStagingThreads=" + maxThreads;
+                }
+            });
+        }
+
+        /**
+         * Stages in the worker JVMs of the {@link StagingWorkerPool#getDefault() shared pool}
+         * instead of in this JVM.
+         * @return this builder
+         */
+        public Builder stagingInWorkerProcesses() {
+            return stagingInWorkerProcesses(StagingWorkerPool.getDefault());
+        }
+
+        public Builder stagingInWorkerProcesses(final StagingWorkerPool pool) {
+            checkNotNull(pool, "pool");
+            return configuredBy(new Configurator() {
+                @Override
+                public void configure(GCloudAsyncRunner instance) {
+                    instance.setStagingWorkerPool(pool);
+                }
+
+                @Override
+                public String toString() {
+                    return "stagingWorkerPool=" + pool;
+                }
+            });
+        }
+
+        public Builder readinessPollBackoff(final long initialInterval, final long maxInterval, final TimeUnit unit) {
+            checkArgument(initialInterval > 0 && initialInterval <= maxInterval, "need 0 < initialInterval <= maxInterval: %s, %s", initialInterval, maxInterval);
+            return configuredBy(new Configurator() {
+                @Override
+                public void configure(GCloudAsyncRunner instance) {
+                    instance.setReadinessPollBackoff(initialInterval, maxInterval, unit);
+                }
+
+                @Override
+                public String toString() {
+                    return "readinessPollBackoff=" + initialInterval + "-" + maxInterval + " " + unit;
+                }
             });
         }
     }
@@ -14,6 +14,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.net.HostAndPort;
 import org.apache.commons.io.FileUtils;
 import org.ini4j.Ini;
 
@@ -25,16 +26,29 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -323,11 +337,144 @@ public abstract class GCloudBase {
         WAIT_SERVER_STOPPED
     }
 
+    private static final String HEALTH_CHECK_LINE = "GET /_ah/health?IsLastSuccessful=yes HTTP/1.1\" 200 2";
+
+    public static final long DEFAULT_READINESS_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_READINESS_INITIAL_POLL_MILLIS = 10;
+    public static final long DEFAULT_READINESS_MAX_POLL_MILLIS = 500;
+
+    /**
+     * Number of lines of output included in the exception thrown when the server
+     * exits during startup.
+     */
+    static final int STARTUP_FAILURE_OUTPUT_LINES = 50;
+
+    public static final int DEFAULT_MAX_STAGING_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final long OUTPUT_DRAIN_TIMEOUT_MILLIS = 1000;
+
+    private ReadinessProbe readinessProbe = ReadinessProbes.allOf(ReadinessProbes.devServerStartedLog(), ReadinessProbes.tcpPort());
+    private long readinessTimeoutMillis = DEFAULT_READINESS_TIMEOUT_MILLIS;
+    private long readinessInitialPollMillis = DEFAULT_READINESS_INITIAL_POLL_MILLIS;
+    private long readinessMaxPollMillis = DEFAULT_READINESS_MAX_POLL_MILLIS;
+    private int outputHistoryCapacity = OutputHistory.DEFAULT_CAPACITY;
+    private int maxStagingThreads = DEFAULT_MAX_STAGING_THREADS;
+    private StagingWorkerPool stagingWorkerPool;
+    private volatile OutputHistory outputHistory;
+    private volatile RequestLogStats requestLogStats;
+
+    /**
+     * Sets the probe that decides when a started server is ready. By default,
+     * the server must log that it has started and accept connections.
+     * @param readinessProbe the probe
+     */
+    public void setReadinessProbe(ReadinessProbe readinessProbe) {
+        this.readinessProbe = checkNotNull(readinessProbe, "readinessProbe");
+    }
+
+    /**
+     * Sets how long to wait for a started server to become ready.
+     * @param timeout the timeout
+     * @param unit the unit of the timeout
+     */
+    public void setReadinessTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout > 0, "timeout must be positive: %s", timeout);
+        this.readinessTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets the intervals between readiness polls. The interval doubles from the
+     * initial to the maximum interval while the server is not ready.
+     * @param initialInterval the first interval
+     * @param maxInterval the longest interval
+     * @param unit the unit of the intervals
+     */
+    public void setReadinessPollBackoff(long initialInterval, long maxInterval, TimeUnit unit) {
+        checkArgument(initialInterval > 0 && initialInterval <= maxInterval, "need 0 < initialInterval <= maxInterval: %s, %s", initialInterval, maxInterval);
+        this.readinessInitialPollMillis = unit.toMillis(initialInterval);
+        this.readinessMaxPollMillis = unit.toMillis(maxInterval);
+    }
+
+    /**
+     * Sets how many recent lines of output the {@link #getOutputHistory() history} holds.
+     * @param capacity the number of lines
+     */
+    public void setOutputHistoryCapacity(int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+        this.outputHistoryCapacity = capacity;
+    }
+
+    /**
+     * Sets how many modules of an EAR application are staged at once when a
+     * {@link #setStagingWorkerPool(StagingWorkerPool) worker pool} is set.
+     * Without a pool, modules are staged one after another, because
+     * {@code AppCfg} is not known to be thread-safe and calls
+     * {@code System.exit} when staging fails.
+     * @param maxThreads the number of modules; 1 stages them one after another
+     */
+    public void setMaxStagingThreads(int maxThreads) {
+        checkArgument(maxThreads > 0, "maxThreads must be positive: %s", maxThreads);
+        this.maxStagingThreads = maxThreads;
+    }
+
+    /**
+     * Sets the pool of worker JVMs that run staging. Each worker has the SDK
+     * root of its own SDK, so staging through a pool does not set the
+     * {@code appengine.sdk.root} property of this JVM, and runners with
+     * different SDKs can stage at once.
+     * @param stagingWorkerPool the pool, or null to stage in this JVM, which is the default
+     */
+    public void setStagingWorkerPool(StagingWorkerPool stagingWorkerPool) {
+        this.stagingWorkerPool = stagingWorkerPool;
+    }
+
+    /**
+     * Returns the recent output of the most recently started server process.
+     * @return the history, or null if no process has been started
+     */
+    public OutputHistory getOutputHistory() {
+        return outputHistory;
+    }
+
+    /**
+     * Returns the request statistics of the most recently started server process.
+     * @return the statistics, or null if no process has been started
+     */
+    public RequestLogStats getRequestLogStats() {
+        return requestLogStats;
+    }
+
+    /**
+     * Port of the dev server's web server when none is configured.
+     */
+    public static final int DEFAULT_SERVER_PORT = 8080;
+
+    /**
+     * Returns the host and port that readiness probes connect to.
+     * @return the host and port of the server's web server, always with a port
+     */
+    protected HostAndPort getServerHost() {
+        return HostAndPort.fromParts("localhost", DEFAULT_SERVER_PORT);
+    }
+
+    /**
+     * Returns the pump that drains the output of the dev server process.
+     * @return the pump
+     */
+    protected ProcessOutputPump getOutputPump() {
+        return ProcessOutputPump.getDefault();
+    }
+
+    /**
+     * Called when the dev server process has been started, before its output is
+     * read. Subclasses that outlive this method's caller keep the process here.
+     * @param process the process
+     */
+    protected void processStarted(Process process) {
+    }
+
     protected void startCommand(File appDirFile, ArrayList<String> devAppServerCommand, WaitDirective waitDirective) throws GCloudExecutionException, IOException {
         getLog().info("Running " + Joiner.on(" ").join(devAppServerCommand));
 
-        Thread stdOutThread;
-        Thread stdErrThread;
         try {
 
             ProcessBuilder processBuilder = new ProcessBuilder(devAppServerCommand);
@@ -398,80 +545,86 @@ public abstract class GCloudBase {
             env.put("PYTHONPATH", gcloud_directory + "/platform/google_appengine/lib/docker");
 
             final Process devServerProcess = processBuilder.start();
+            ProcessTrees.killOnExit(devServerProcess);
+            processStarted(devServerProcess);
+
+            final ReadinessWaiter readinessWaiter = new ReadinessWaiter(readinessProbe.newCheck(),
+                    readinessTimeoutMillis, readinessInitialPollMillis, readinessMaxPollMillis, TimeUnit.MILLISECONDS);
+            final OutputHistory outputHistory = new OutputHistory(outputHistoryCapacity);
+            this.outputHistory = outputHistory;
+            final RequestLogStats requestLogStats = new RequestLogStats();
+            this.requestLogStats = requestLogStats;
+            final CountDownLatch outputEndedLatch = new CountDownLatch(2);
+
+            ProcessOutputPump pump = getOutputPump();
+            // health checks arrive constantly; only the first and every 20th are decoded and logged
+            pump.register(devServerProcess, devServerProcess.getInputStream(), Charset.defaultCharset(),
+                    ProcessOutputPump.sampling(HEALTH_CHECK_LINE, 20), new ProcessOutputPump.LineConsumer() {
+                private boolean serverStartedOK = false;
 
-            final CountDownLatch waitStartedLatch = new CountDownLatch(1);
-
-            final Scanner stdOut = new Scanner(devServerProcess.getInputStream());
-            stdOutThread = new Thread("standard-out-redirection-devappserver") {
                 @Override
-                public void run() {
-                    boolean serverStartedOK = false;
-                    try {
-                        long healthCount = 0;
-                        while (stdOut.hasNextLine() && !Thread.interrupted()) {
-                            String line = stdOut.nextLine();
-                            // emit this every 30 times, no need for more...
-                            if (line.contains("GET /_ah/health?IsLastSuccessful=yes HTTP/1.1\" 200 2")) {
-                                waitStartedLatch.countDown();
-                                if (healthCount % 20 == 0) {
-                                    getLog().info(line);
-                                }
-                                healthCount++;
-                            } else if (line.contains("Dev App Server is now running")) {
-                                // App Engine V1
-                                waitStartedLatch.countDown();
-                                serverStartedOK = true;
-
-                            } else if (line.contains("INFO:oejs.Server:main: Started")) {
-                                // App Engine V2
-                                waitStartedLatch.countDown();
-                                serverStartedOK = true;
-
-                            } else {
-                                getLog().info(line);
-                            }
-                        }
-                    } finally {
-                        waitStartedLatch.countDown();
-                        if ((!serverStartedOK) && (!deployCommand)) {
-                            throw new RuntimeException("The Java Dev Server has stopped.");
-
-                        }
+                public void consume(String line) {
+                    if (line.contains("Dev App Server is now running")) {
+                        // App Engine V1
+                        serverStartedOK = true;
+                    } else if (line.contains("INFO:oejs.Server:main: Started")) {
+                        // App Engine V2
+                        serverStartedOK = true;
+                    } else {
+                        getLog().info(line);
                     }
+                    outputHistory.add(line);
+                    requestLogStats.record(line);
+                    readinessWaiter.lineLogged(line);
                 }
-            };
-            stdOutThread.setDaemon(true);
-            stdOutThread.start();
 
-            final Scanner stdErr = new Scanner(devServerProcess.getErrorStream());
-            stdErrThread = new Thread("standard-err-redirection-devappserver") {
                 @Override
-                public void run() {
-                    while (stdErr.hasNextLine() && !Thread.interrupted()) {
-                        getLog().error(stdErr.nextLine());
+                public void ended() {
+                    outputEndedLatch.countDown();
+                    readinessWaiter.signal();
+                    if ((!serverStartedOK) && (!deployCommand)) {
+                        getLog().error("The Java Dev Server has stopped.");
                     }
                 }
-            };
-            stdErrThread.setDaemon(true);
-            stdErrThread.start();
-            if (waitDirective == WaitDirective.WAIT_SERVER_STOPPED) {
-                Runtime.getRuntime().addShutdownHook(new Thread("destroy-devappserver") {
-                    @Override
-                    public void run() {
-                        if (devServerProcess != null) {
-                            devServerProcess.destroy();
-                        }
-                    }
-                });
+            });
+            pump.register(devServerProcess, devServerProcess.getErrorStream(), Charset.defaultCharset(), null, new ProcessOutputPump.LineConsumer() {
+                @Override
+                public void consume(String line) {
+                    getLog().error(line);
+                    outputHistory.add(line);
+                    requestLogStats.record(line);
+                    readinessWaiter.lineLogged(line);
+                }
 
+                @Override
+                public void ended() {
+                    outputEndedLatch.countDown();
+                    readinessWaiter.signal();
+                }
+            });
+            if (waitDirective == WaitDirective.WAIT_SERVER_STOPPED) {
                 devServerProcess.waitFor();
+                ProcessTrees.cancelKillOnExit(devServerProcess);
                 int status = devServerProcess.exitValue();
                 if (status != 0) {
                     getLog().error("Error: gcloud app command with exit code : " + status);
                     throw new GCloudExecutionException("Error: gcloud app command exit code is: " + status);
                 }
             } else if (waitDirective == WaitDirective.WAIT_SERVER_STARTED) {
-                waitStartedLatch.await();
+                HostAndPort serverHost = getServerHost();
+                ReadinessWaiter.Outcome outcome = readinessWaiter.await(devServerProcess, serverHost);
+                if (outcome == ReadinessWaiter.Outcome.TIMED_OUT) {
+                    ProcessTrees.signal(devServerProcess, ProcessTrees.Signal.KILL);
+                    ProcessTrees.cancelKillOnExit(devServerProcess);
+                    throw new GCloudExecutionException("dev server at " + serverHost + " not ready after "
+                            + readinessTimeoutMillis + "ms according to " + readinessProbe);
+                }
+                if (outcome == ReadinessWaiter.Outcome.PROCESS_EXITED) {
+                    // let the pump deliver what the process printed just before exiting
+                    outputEndedLatch.await(OUTPUT_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    ProcessTrees.cancelKillOnExit(devServerProcess);
+                    throw new DevServerExitedException(devServerProcess.exitValue(), outputHistory.tail(STARTUP_FAILURE_OUTPUT_LINES));
+                }
                 getLog().info("");
                 getLog().info("App Engine Dev Server started in Async mode and running.");
                 getLog().info("you can stop it with this command: mvn gcloud:run_stop");
@@ -580,9 +733,24 @@ public abstract class GCloudBase {
         return FileUtils.getTempDirectory();
     }
 
+    protected File resolveSdkRoot() throws IOException {
+        return appengineSdkResolver.resolve(getDownloadCacheDirectory()).getCanonicalFile();
+    }
+
     protected void resolveAndSetSdkRoot() throws IOException {
-        File sdkBaseDir = appengineSdkResolver.resolve(getDownloadCacheDirectory());
-        System.setProperty("appengine.sdk.root", sdkBaseDir.getCanonicalPath());
+        System.setProperty("appengine.sdk.root", resolveSdkRoot().getPath());
+    }
+
+    /**
+     * Resolves the SDK root for staging. The system property that {@code AppCfg}
+     * reads is set only when staging runs in this JVM.
+     */
+    private File prepareSdkRoot() throws IOException {
+        File sdkRoot = resolveSdkRoot();
+        if (stagingWorkerPool == null) {
+            System.setProperty("appengine.sdk.root", sdkRoot.getPath());
+        }
+        return sdkRoot;
     }
 
     /**
@@ -597,18 +765,107 @@ public abstract class GCloudBase {
 
     }
 
+    /**
+     * Returns the lock file that serializes staging into a directory. Runners
+     * that share a staging directory wait for each other, and the later ones
+     * usually find the output up to date.
+     * @param destinationDir the staging directory
+     * @return the lock file
+     */
+    protected File getStagingLockFile(File destinationDir) {
+        return new File(destinationDir.getParentFile(), destinationDir.getName() + ".lock");
+    }
+
+    @SuppressWarnings("try")
     protected File executeAppCfgStagingCommand(String appDir)
             throws IOException {
-
-        ArrayList<String> arguments = new ArrayList<>();
         File destinationDir = new File(staging_directory);
         checkStagingDirectoryLocation(destinationDir);
-        if (destinationDir.exists()) {
-            FileUtils.deleteDirectory(destinationDir);
+        File sdkRoot = prepareSdkRoot();
+        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(getStagingLockFile(destinationDir), CacheDirectoryLock.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            return stageApplication(appDir, destinationDir, sdkRoot);
         }
+    }
 
-        getLog().info("Creating staging directory in: " + destinationDir.getAbsolutePath());
-        resolveAndSetSdkRoot();
+    /**
+     * Stages the modules of an EAR application, each into a subdirectory of the
+     * staging directory named after the module. With a
+     * {@link #setStagingWorkerPool(StagingWorkerPool) worker pool}, up to
+     * {@link #setMaxStagingThreads(int) a bounded number} are staged at once;
+     * without one, they are staged one after another in this JVM. The SDK root
+     * is resolved once, before any module is staged. Every module is staged
+     * even if another fails, except that a failure inside {@code AppCfg} run in
+     * this JVM exits the JVM.
+     * @param moduleDirs the module directories
+     * @return the staging directories, in the order of the modules
+     * @throws GCloudExecutionException if any module failed to stage; the message lists each failure
+     * @throws IOException if the staging directory could not be locked
+     */
+    @SuppressWarnings("try")
+    protected List<File> executeAppCfgStagingCommands(List<File> moduleDirs) throws IOException {
+        final File stagingRoot = new File(staging_directory);
+        checkStagingDirectoryLocation(stagingRoot);
+        final File sdkRoot = prepareSdkRoot();
+        // AppCfg run in this JVM is not known to be thread-safe
+        int threads = stagingWorkerPool == null ? 1 : Math.max(1, Math.min(maxStagingThreads, moduleDirs.size()));
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "appcfg-staging-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(getStagingLockFile(stagingRoot), CacheDirectoryLock.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            List<Future<File>> futures = new ArrayList<>(moduleDirs.size());
+            for (final File moduleDir : moduleDirs) {
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        File destinationDir = new File(stagingRoot, moduleDir.getName());
+                        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(getStagingLockFile(destinationDir), CacheDirectoryLock.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                            return stageApplication(moduleDir.getAbsolutePath(), destinationDir, sdkRoot);
+                        }
+                    }
+                }));
+            }
+            List<File> stagingDirs = new ArrayList<>(moduleDirs.size());
+            Map<String, Throwable> failures = new LinkedHashMap<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    stagingDirs.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    failures.put(moduleDirs.get(i).getName(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while staging modules");
+                }
+            }
+            if (!failures.isEmpty()) {
+                StringBuilder message = new StringBuilder();
+                message.append("staging failed for ").append(failures.size()).append(" of ").append(moduleDirs.size()).append(" modules:");
+                for (Map.Entry<String, Throwable> failure : failures.entrySet()) {
+                    message.append(System.lineSeparator()).append("  ").append(failure.getKey()).append(": ").append(failure.getValue());
+                }
+                Iterator<Throwable> causes = failures.values().iterator();
+                GCloudExecutionException exception = new GCloudExecutionException(message.toString(), causes.next());
+                while (causes.hasNext()) {
+                    exception.addSuppressed(causes.next());
+                }
+                throw exception;
+            }
+            return stagingDirs;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stages an application, in a worker process if a {@link #setStagingWorkerPool(StagingWorkerPool) pool} is set.
+     */
+    private File stageApplication(String appDir, File destinationDir, File sdkRoot) throws IOException {
+        ArrayList<String> arguments = new ArrayList<>();
         // System.setProperty("appengine.sdk.root", gcloud_directory +"/platform/google_appengine/google/appengine/tools/java");
         AppEngineWebXml appengineWeb = getAppEngineWebXml(appDir);
         if ("true".equals(appengineWeb.getBetaSettings().get("java_quickstart"))) {
@@ -702,11 +959,27 @@ public abstract class GCloudBase {
             arguments.add("-r");
             arguments.add("java");
         }
+        List<String> stagingFlags = new ArrayList<>(arguments);
+        stagingFlags.add("appengine.sdk.root=" + sdkRoot.getPath());
+        stagingFlags.add("javaVersion=" + getJavaVersion());
+        File fingerprintFile = StagingFingerprint.fileIn(destinationDir);
+        StagingFingerprint previous = StagingFingerprint.read(fingerprintFile);
+        if (previous != null && previous.matches(appDirFile, stagingFlags)) {
+            getLog().info("Application and staging flags unchanged; reusing staging directory " + destinationDir.getAbsolutePath());
+            return destinationDir;
+        }
+        DirectoryReaper.getDefault().reap(destinationDir);
+        getLog().info("Creating staging directory in: " + destinationDir.getAbsolutePath());
+
         arguments.add("stage");
         arguments.add(appDir);
         arguments.add(destinationDir.getAbsolutePath());
         getLog().info("Running appcfg " + Joiner.on(" ").join(arguments));
-        AppCfg.main(arguments.toArray(new String[arguments.size()]));
+        if (stagingWorkerPool == null) {
+            AppCfg.main(arguments.toArray(new String[arguments.size()]));
+        } else {
+            stagingWorkerPool.stage(sdkRoot, arguments);
+        }
         // For now, treat custom as java7 so that the app run command works.
         try {
             File fileAppYaml = new File(destinationDir, "/app.yaml");
@@ -736,6 +1009,8 @@ public abstract class GCloudBase {
         if (index.exists()) {
             index.delete();
         }
+        // taken after staging, because staging rewrites files in the application directory
+        StagingFingerprint.compute(appDirFile, stagingFlags, FileUtils.sizeOfDirectory(destinationDir)).write(fingerprintFile);
         return destinationDir;
     }
 
@@ -4,6 +4,7 @@
 package com.github.mike10004.gaetesting;
 
 import com.google.common.base.Supplier;
+import com.google.common.net.HostAndPort;
 
 import java.io.File;
 import java.io.IOException;
@@ -291,15 +292,18 @@ public abstract class GCloudDevServerBase extends GCloudBase {
                 //executeAppCfgStagingCommand(appDir);
                 devAppServerCommand.add(f.getAbsolutePath());
             } else {
-                boolean oneMod = false;
+                List<File> moduleDirs = new ArrayList<>();
                 for (File w : appDirectory.listFiles()) {
                     if (new File(w, "WEB-INF/appengine-web.xml").exists()) {
-                        executeAppCfgStagingCommand(w.getAbsolutePath());
-                        devAppServerCommand.add(w.getAbsolutePath());
-                        oneMod = true;
+                        moduleDirs.add(w);
                     }
                 }
-                if (!oneMod) {
+                if (!moduleDirs.isEmpty()) {
+                    executeAppCfgStagingCommands(moduleDirs);
+                    for (File w : moduleDirs) {
+                        devAppServerCommand.add(w.getAbsolutePath());
+                    }
+                } else {
                     executeAppCfgStagingCommand(application_directory);
                     devAppServerCommand.add(appDirectory.getAbsolutePath());
 
@@ -459,6 +463,14 @@ public abstract class GCloudDevServerBase extends GCloudBase {
         this.admin_host = admin_host;
     }
 
+    public void setStorage_path(String storage_path) {
+        this.storage_path = storage_path;
+    }
+
+    public String getStorage_path() {
+        return storage_path;
+    }
+
     public String getApi_host() {
         return api_host;
     }
@@ -467,6 +479,11 @@ public abstract class GCloudDevServerBase extends GCloudBase {
         return host;
     }
 
+    @Override
+    protected HostAndPort getServerHost() {
+        return host == null ? super.getServerHost() : HostAndPort.fromString(host).withDefaultPort(DEFAULT_SERVER_PORT);
+    }
+
     public String getAdmin_host() {
         return admin_host;
     }
@@ -10,21 +10,54 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Stops a dev server by asking its admin server to quit and then waiting, up
+ * to a deadline, until its process exits and, if the web server's address is
+ * known, its ports close. The ports are watched because the process may be a
+ * wrapper whose children hold them after it exits. If the server does not
+ * stop in time and its process is still running, the whole process tree is
+ * sent SIGTERM and then SIGKILL.
+ */
 public class GCloudServerStopper {
 
     private static final Logger log = LoggerFactory.getLogger(GCloudServerStopper.class);
 
     public static final int DEFAULT_ADMIN_PORT = 8000;
+    public static final long DEFAULT_STOP_TIMEOUT_MILLIS = 10000;
+
+    static final long TERM_GRACE_MILLIS = 5000;
+    static final long KILL_GRACE_MILLIS = 2000;
+    private static final long POLL_INTERVAL_MILLIS = 25;
+    private static final int CONNECT_TIMEOUT_MILLIS = 250;
+    private static final int QUIT_TIMEOUT_MILLIS = 4000;
 
     private final HostAndPort adminHost;
+    private final HostAndPort serverHost;
+    private final Process process;
 
     public GCloudServerStopper(HostAndPort adminHost) {
+        this(adminHost, null, null);
+    }
+
+    /**
+     * Creates a stopper.
+     * @param adminHost the host and port of the admin server
+     * @param serverHost the host and port of the web server, or null to watch only the admin port
+     * @param process the dev server process, or null if the server was not started by this JVM
+     */
+    public GCloudServerStopper(HostAndPort adminHost, HostAndPort serverHost, Process process) {
         this.adminHost = checkNotNull(adminHost);
+        this.serverHost = serverHost;
+        this.process = process;
     }
 
     public void execute() throws IOException {
@@ -36,25 +69,120 @@ public class GCloudServerStopper {
     }
 
     protected void stopDevAppServer() throws GCloudExecutionException {
-        HttpURLConnection connection;
+        StopResult result = stop(DEFAULT_STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        log.info("dev server stop: {}", result);
+    }
+
+    /**
+     * Stops the server.
+     * @param timeout how long to wait for a graceful stop before escalating
+     * @param unit the unit of the timeout
+     * @return the result
+     * @throws GCloudExecutionException if interrupted
+     */
+    public StopResult stop(long timeout, TimeUnit unit) throws GCloudExecutionException {
+        checkArgument(timeout >= 0, "timeout must be nonnegative: %s", timeout);
+        long start = System.nanoTime();
+        try {
+            boolean quitRequested = requestQuit();
+            if (!quitRequested && (process == null || ProcessTrees.hasExited(process))) {
+                return result(StopResult.Outcome.NOT_RUNNING, start);
+            }
+            if (awaitStopped(start + unit.toNanos(timeout))) {
+                return result(StopResult.Outcome.GRACEFUL, start);
+            }
+            if (process == null) {
+                log.warn("dev server at {} did not stop within {} {} and its process is unknown", adminHost, timeout, unit);
+                return result(StopResult.Outcome.TIMED_OUT, start);
+            }
+            if (ProcessTrees.hasExited(process)) {
+                log.warn("dev server process exited but its ports were still open after {} {}; its children can no longer be signalled", timeout, unit);
+                return result(StopResult.Outcome.TIMED_OUT, start);
+            }
+            log.info("dev server did not stop within {} {}; terminating its process tree", timeout, unit);
+            ProcessTrees.signal(process, ProcessTrees.Signal.TERM);
+            if (awaitExit(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TERM_GRACE_MILLIS))) {
+                return result(StopResult.Outcome.TERMINATED, start);
+            }
+            log.warn("dev server did not exit within {}ms of SIGTERM; killing its process tree", TERM_GRACE_MILLIS);
+            ProcessTrees.signal(process, ProcessTrees.Signal.KILL);
+            if (awaitExit(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(KILL_GRACE_MILLIS))) {
+                return result(StopResult.Outcome.KILLED, start);
+            }
+            log.warn("dev server process was still running {}ms after SIGKILL", KILL_GRACE_MILLIS);
+            return result(StopResult.Outcome.SURVIVED_KILL, start);
+        } catch (InterruptedException e) {
+            throw new GCloudExecutionException(e);
+        }
+    }
+
+    private static StopResult result(StopResult.Outcome outcome, long start) {
+        return new StopResult(outcome, System.nanoTime() - start);
+    }
+
+    private boolean requestQuit() throws GCloudExecutionException {
         try {
             URL url = new URL("http", adminHost.getHost(), adminHost.getPortOrDefault(DEFAULT_ADMIN_PORT), "/quit");
-            connection = (HttpURLConnection) url.openConnection();
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
             connection.setDoOutput(true);
             connection.setDoInput(true);
             connection.setRequestMethod("GET");
-            ByteStreams.toByteArray(connection.getInputStream());
-            connection.setReadTimeout(4000);
-            connection.disconnect();
-
-            log.info("Shutting down Cloud SDK Server on port " + 8000
-                    + " and waiting 4 seconds...");
-            Thread.sleep(4000);
-        } catch (MalformedURLException | InterruptedException e) {
+            connection.setConnectTimeout(QUIT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(QUIT_TIMEOUT_MILLIS);
+            try {
+                ByteStreams.toByteArray(connection.getInputStream());
+            } finally {
+                connection.disconnect();
+            }
+            log.info("Shutting down Cloud SDK Server on {}", adminHost);
+            return true;
+        } catch (MalformedURLException e) {
             throw new GCloudExecutionException(e);
         } catch (IOException e) {
-            log.info("Was not able to contact the devappserver to shut it down.  Most likely this is due to it simply not running anymore. ", e);
+            log.info("Was not able to contact the devappserver to shut it down.  Most likely this is due to it simply not running anymore. {}", e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Waits until the process exits, if it is known, and the server's ports
+     * close. The ports are checked only if the process is unknown or the web
+     * server's address is known.
+     */
+    private boolean awaitStopped(long deadlineNanos) throws InterruptedException {
+        while (true) {
+            boolean exited = process == null || ProcessTrees.hasExited(process);
+            if (exited && ((process != null && serverHost == null) || portsClosed())) {
+                return true;
+            }
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private boolean awaitExit(long deadlineNanos) throws InterruptedException {
+        while (!ProcessTrees.hasExited(process)) {
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                return false;
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
         }
+        return true;
+    }
+
+    private boolean portsClosed() {
+        return !isOpen(adminHost.getHost(), adminHost.getPortOrDefault(DEFAULT_ADMIN_PORT))
+                && (serverHost == null || !isOpen(serverHost.getHost(), serverHost.getPortOrDefault(GCloudBase.DEFAULT_SERVER_PORT)));
     }
 
+    private static boolean isOpen(String host, int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferPhase;
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferProgressListener;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress listener that logs the progress of each phase of SDK resolution and
+ * keeps running totals per phase, so that a slow cold start can be attributed
+ * to the network, the disk, or the unpack. Periodic updates are logged at debug
+ * level and the completion of each phase at info level.
+ */
+public class LoggingTransferProgressListener implements TransferProgressListener {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggingTransferProgressListener.class);
+
+    private final Map<TransferPhase, long[]> totals = new EnumMap<>(TransferPhase.class);
+
+    @Override
+    public void serverResponded(HttpResponse response) {
+        log.debug("server responded: {}", response.getStatusLine());
+    }
+
+    @Override
+    public void downloadingToTemporaryFile(HttpEntity entity, File destinationFile) {
+        log.debug("downloading to {}", destinationFile);
+    }
+
+    @Override
+    public void copyingToPermanentFile(File tempFile, File permanentFile) {
+        log.debug("moving {} to {}", tempFile, permanentFile);
+    }
+
+    @Override
+    public void finished(File destinationFile) {
+        log.debug("finished downloading {}", destinationFile);
+    }
+
+    @Override
+    public void transferProgressed(TransferProgress progress) {
+        log.debug("{}", progress);
+    }
+
+    @Override
+    public void transferFinished(TransferProgress progress) {
+        log.info("{}", progress);
+        synchronized (totals) {
+            long[] phaseTotals = totals.get(progress.getPhase());
+            if (phaseTotals == null) {
+                phaseTotals = new long[2];
+                totals.put(progress.getPhase(), phaseTotals);
+            }
+            phaseTotals[0] += progress.getBytesTransferred();
+            phaseTotals[1] += progress.getElapsed(TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Returns the total bytes and time of each phase that has finished so far.
+     * @return a map of phase to totals, with subject "total"
+     */
+    public Map<TransferPhase, TransferProgress> getTotals() {
+        Map<TransferPhase, TransferProgress> result = new EnumMap<>(TransferPhase.class);
+        synchronized (totals) {
+            for (Map.Entry<TransferPhase, long[]> entry : totals.entrySet()) {
+                long[] phaseTotals = entry.getValue();
+                result.put(entry.getKey(), new TransferProgress(entry.getKey(), "total", phaseTotals[0], phaseTotals[0], phaseTotals[1]));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.mike10004.gaetesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Resolver decorator that resolves the SDK at most once per JVM for each
+ * combination of SDK version and cache directory. Concurrent callers share
+ * a single in-flight resolution. Failed resolutions are not remembered, and
+ * a remembered SDK directory that has since been deleted is resolved again.
+ */
+class MemoizingSdkResolver extends AppEngineSdkResolver {
+
+    private static final ConcurrentMap<Key, FutureTask<File>> resolutions = new ConcurrentHashMap<>();
+
+    private final String version;
+    private final AppEngineSdkResolver delegate;
+
+    public MemoizingSdkResolver(String version, AppEngineSdkResolver delegate) {
+        this.version = checkNotNull(version, "version");
+        this.delegate = checkNotNull(delegate, "delegate");
+    }
+
+    AppEngineSdkResolver getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public File resolve(final File cacheDir) throws IOException {
+        Key key = new Key(version, cacheDir.getCanonicalPath());
+        while (true) {
+            FutureTask<File> task = resolutions.get(key);
+            boolean ranHere = false;
+            if (task == null) {
+                FutureTask<File> created = new FutureTask<>(new Callable<File>() {
+                    @Override
+                    public File call() throws IOException {
+                        return delegate.resolve(cacheDir);
+                    }
+                });
+                task = resolutions.putIfAbsent(key, created);
+                if (task == null) {
+                    task = created;
+                    created.run();
+                    ranHere = true;
+                }
+            }
+            File sdkDir;
+            try {
+                sdkDir = task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for SDK resolution");
+            } catch (ExecutionException e) {
+                resolutions.remove(key, task);
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException("SDK resolution failed", cause);
+            }
+            if (ranHere || sdkDir.isDirectory()) {
+                return sdkDir;
+            }
+            resolutions.remove(key, task);
+        }
+    }
+
+    /**
+     * Forgets all remembered resolutions.
+     */
+    static void clear() {
+        resolutions.clear();
+    }
+
+    private static final class Key {
+
+        private final String version;
+        private final String cacheDirPath;
+
+        private Key(String version, String cacheDirPath) {
+            this.version = version;
+            this.cacheDirPath = cacheDirPath;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return version.equals(key.version) && cacheDirPath.equals(key.cacheDirPath);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * version.hashCode() + cacheDirPath.hashCode();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.mike10004.gaetesting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Bounded record of the most recent lines of a process's output. When full,
+ * each new line overwrites the oldest. Thread-safe.
+ *
+ * <p>Each line gets a sequence number, so a caller can take a {@link #mark()},
+ * do something, and then read {@link #linesSince(long) the lines since} or
+ * {@link #awaitLine(Pattern, long, long, TimeUnit) wait for a line} that the
+ * action should cause. The patterns of all waiting callers are compiled into
+ * one alternation, so a new line is matched once no matter how many callers
+ * wait, and only lines that match it are checked against each caller's pattern.
+ */
+public class OutputHistory {
+
+    public static final int DEFAULT_CAPACITY = 1000;
+
+    private static final Pattern BACK_REFERENCE_OR_NAMED_GROUP = Pattern.compile("\\\\(?:[1-9]|k<)|\\(\\?<[a-zA-Z]");
+
+    private final String[] lines;
+    private long count;
+    private final List<Waiter> waiters = new ArrayList<>();
+    private boolean prefilterStale;
+    private Matcher prefilter;
+    private final List<Waiter> unfilteredWaiters = new ArrayList<>();
+
+    public OutputHistory() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OutputHistory(int capacity) {
+        checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+        this.lines = new String[capacity];
+    }
+
+    public synchronized void add(String line) {
+        lines[(int) (count % lines.length)] = line;
+        count++;
+        if (waiters.isEmpty()) {
+            return;
+        }
+        if (prefilterStale) {
+            rebuildPrefilter();
+        }
+        boolean matched = false;
+        if (prefilter != null && prefilter.reset(line).find()) {
+            matched = offer(waiters, line);
+        } else if (!unfilteredWaiters.isEmpty()) {
+            matched = offer(unfilteredWaiters, line);
+        }
+        if (matched) {
+            notifyAll();
+        }
+    }
+
+    private static boolean offer(List<Waiter> candidates, String line) {
+        boolean matched = false;
+        for (Waiter waiter : candidates) {
+            if (waiter.match == null && waiter.pattern.matcher(line).find()) {
+                waiter.match = line;
+                matched = true;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Compiles the patterns of the waiters into one alternation. Patterns with
+     * flags or back references would change meaning inside an alternation, and
+     * two patterns defining the same named group could not be combined, so
+     * those are matched separately. If the alternation still fails to compile,
+     * every waiter is matched separately.
+     */
+    private void rebuildPrefilter() {
+        StringBuilder alternation = new StringBuilder();
+        unfilteredWaiters.clear();
+        for (Waiter waiter : waiters) {
+            Pattern pattern = waiter.pattern;
+            if (pattern.flags() != 0 || BACK_REFERENCE_OR_NAMED_GROUP.matcher(pattern.pattern()).find()) {
+                unfilteredWaiters.add(waiter);
+            } else {
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(pattern.pattern()).append(')');
+            }
+        }
+        prefilterStale = false;
+        prefilter = null;
+        if (alternation.length() > 0) {
+            try {
+                prefilter = Pattern.compile(alternation.toString()).matcher("");
+            } catch (PatternSyntaxException e) {
+                unfilteredWaiters.clear();
+                unfilteredWaiters.addAll(waiters);
+            }
+        }
+    }
+
+    /**
+     * Returns the sequence number of the next line to be added.
+     * @return the mark
+     */
+    public synchronized long mark() {
+        return count;
+    }
+
+    /**
+     * Returns the lines added since a mark that are still held, oldest first.
+     * @param mark the mark
+     * @return the lines
+     */
+    public synchronized List<String> linesSince(long mark) {
+        long first = Math.max(Math.max(mark, 0), count - lines.length);
+        List<String> result = new ArrayList<>((int) Math.max(0, count - first));
+        for (long i = first; i < count; i++) {
+            result.add(lines[(int) (i % lines.length)]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the most recent lines, oldest first.
+     * @param maxLines the maximum number of lines to return
+     * @return the lines
+     */
+    public synchronized List<String> tail(int maxLines) {
+        return linesSince(count - maxLines);
+    }
+
+    /**
+     * Waits for a line containing a match of a pattern to be added.
+     * @param pattern the pattern
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return the line, or null if none was added within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public String awaitLine(Pattern pattern, long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            return awaitLine(pattern, count, timeout, unit);
+        }
+    }
+
+    /**
+     * Waits for a line containing a match of a pattern, considering lines
+     * added since a mark as well as lines added while waiting.
+     * @param pattern the pattern
+     * @param mark the mark
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return the first matching line, or null if none was added within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized String awaitLine(Pattern pattern, long mark, long timeout, TimeUnit unit) throws InterruptedException {
+        checkNotNull(pattern, "pattern");
+        for (String line : linesSince(mark)) {
+            if (pattern.matcher(line).find()) {
+                return line;
+            }
+        }
+        Waiter waiter = new Waiter(pattern);
+        waiters.add(waiter);
+        prefilterStale = true;
+        try {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (waiter.match == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return null;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return waiter.match;
+        } finally {
+            waiters.remove(waiter);
+            prefilterStale = true;
+        }
+    }
+
+    private static final class Waiter {
+
+        private final Pattern pattern;
+        private String match;
+
+        private Waiter(Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+}
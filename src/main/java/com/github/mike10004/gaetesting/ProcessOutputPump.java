@@ -0,0 +1,428 @@
+package com.github.mike10004.gaetesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Drains the output of child processes on one shared pump thread and hands the
+ * lines to consumers on one shared dispatcher thread. However many processes are
+ * registered, the pump uses two threads in total.
+ *
+ * <p>The pump polls: it reads only the bytes that {@link InputStream#available()}
+ * reports, and sleeps between 1 and 50 milliseconds when no stream had any, so
+ * one quiet process never holds up another. It splits lines in reusable byte
+ * buffers and decodes a line only if the registration's {@link LinePrefilter}
+ * accepts it. A stream ends only at end of file. Once its process has exited,
+ * a stream that is still open, for example because a grandchild process holds
+ * the pipe, is handed to a short-lived thread that reads it to the end, so the
+ * pump thread itself never blocks.
+ *
+ * <p>Lines wait for the dispatcher in a bounded queue. If a consumer falls so
+ * far behind that the queue fills, further lines are dropped, because blocking
+ * the pump would eventually block the child process on a full pipe. Dropped
+ * lines are counted, and the dispatcher logs the count once it catches up.
+ */
+public class ProcessOutputPump {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessOutputPump.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final long MIN_IDLE_SLEEP_MILLIS = 1;
+    private static final long MAX_IDLE_SLEEP_MILLIS = 50;
+
+    private static final ProcessOutputPump defaultInstance = new ProcessOutputPump(DEFAULT_QUEUE_CAPACITY);
+
+    private final BlockingQueue<Dispatch> dispatchQueue;
+    private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private final Object startLock = new Object();
+    private Thread pumpThread;
+    private Thread dispatcherThread;
+
+    public ProcessOutputPump(int queueCapacity) {
+        checkArgument(queueCapacity > 0, "queueCapacity must be positive: %s", queueCapacity);
+        this.dispatchQueue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Returns the pump shared by all dev servers in this JVM.
+     * @return the shared pump
+     */
+    public static ProcessOutputPump getDefault() {
+        return defaultInstance;
+    }
+
+    /**
+     * Receives the lines of one output stream, on the dispatcher thread.
+     */
+    public interface LineConsumer {
+
+        /**
+         * Called for each line that passes the prefilter, without the line terminator.
+         * @param line the line
+         */
+        void consume(String line);
+
+        /**
+         * Called once after the last line, when the stream has ended or the registration was cancelled.
+         */
+        void ended();
+    }
+
+    /**
+     * Decides on the raw bytes of a line whether the line is decoded and
+     * dispatched at all. Called on the pump thread, so it must be fast.
+     */
+    public interface LinePrefilter {
+
+        boolean accept(byte[] buffer, int offset, int length);
+    }
+
+    private static final LinePrefilter acceptAll = new LinePrefilter() {
+        @Override
+        public boolean accept(byte[] buffer, int offset, int length) {
+            return true;
+        }
+    };
+
+    /**
+     * Returns a prefilter that accepts every line not containing a marker, and
+     * only the first and then every {@code every}th line containing it. This
+     * keeps periodic health check lines from drowning the log.
+     * @param marker the marker text, matched against the raw bytes in UTF-8
+     * @param every the sampling interval
+     * @return the prefilter
+     */
+    public static LinePrefilter sampling(String marker, final int every) {
+        checkArgument(every > 0, "every must be positive: %s", every);
+        final byte[] markerBytes = marker.getBytes(StandardCharsets.UTF_8);
+        return new LinePrefilter() {
+            private long count;
+
+            @Override
+            public boolean accept(byte[] buffer, int offset, int length) {
+                if (indexOf(buffer, offset, length, markerBytes) < 0) {
+                    return true;
+                }
+                return count++ % every == 0;
+            }
+        };
+    }
+
+    static int indexOf(byte[] buffer, int offset, int length, byte[] target) {
+        int last = offset + length - target.length;
+        outer:
+        for (int i = offset; i <= last; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (buffer[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i - offset;
+        }
+        return -1;
+    }
+
+    /**
+     * Starts draining a stream of a process.
+     * @param process the process, used to notice when it has exited
+     * @param stream the stream, such as the process's standard output
+     * @param charset the charset of the output
+     * @param prefilter the prefilter, or null to dispatch every line
+     * @param consumer the consumer of the lines
+     * @return the registration, which can be cancelled
+     */
+    public Registration register(Process process, InputStream stream, Charset charset, LinePrefilter prefilter, LineConsumer consumer) {
+        Registration registration = new Registration(process, stream, charset, prefilter == null ? acceptAll : prefilter, consumer);
+        registrations.add(registration);
+        ensureStarted();
+        synchronized (registrations) {
+            registrations.notifyAll();
+        }
+        return registration;
+    }
+
+    /**
+     * Returns the number of lines dropped because the dispatch queue was full.
+     * @return the count
+     */
+    public long getDroppedLineCount() {
+        return droppedLines.get();
+    }
+
+    private void ensureStarted() {
+        synchronized (startLock) {
+            if (pumpThread == null) {
+                pumpThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        pump();
+                    }
+                }, "process-output-pump");
+                pumpThread.setDaemon(true);
+                pumpThread.start();
+                dispatcherThread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch();
+                    }
+                }, "process-output-dispatcher");
+                dispatcherThread.setDaemon(true);
+                dispatcherThread.start();
+            }
+        }
+    }
+
+    private void pump() {
+        byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+        List<Registration> pendingEnds = new ArrayList<>();
+        long idleSleep = MIN_IDLE_SLEEP_MILLIS;
+        while (true) {
+            boolean progressed = false;
+            for (Registration registration : registrations) {
+                try {
+                    progressed |= registration.poll(readBuffer);
+                } catch (IOException e) {
+                    log.debug("reading process output failed", e);
+                    registration.finish();
+                }
+                if (registration.finished) {
+                    registrations.remove(registration);
+                    pendingEnds.add(registration);
+                } else if (registration.awaitingEof) {
+                    registrations.remove(registration);
+                    startDrain(registration);
+                }
+            }
+            for (Iterator<Registration> it = pendingEnds.iterator(); it.hasNext(); ) {
+                Registration registration = it.next();
+                if (dispatchQueue.offer(new Dispatch(registration.consumer, null))) {
+                    it.remove();
+                }
+            }
+            if (progressed) {
+                idleSleep = MIN_IDLE_SLEEP_MILLIS;
+                continue;
+            }
+            try {
+                if (registrations.isEmpty() && pendingEnds.isEmpty()) {
+                    synchronized (registrations) {
+                        while (registrations.isEmpty()) {
+                            registrations.wait();
+                        }
+                    }
+                } else {
+                    Thread.sleep(idleSleep);
+                    idleSleep = Math.min(MAX_IDLE_SLEEP_MILLIS, idleSleep * 2);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void startDrain(final Registration registration) {
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                registration.drain();
+            }
+        }, "process-output-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private void dispatch() {
+        long reportedDrops = 0;
+        while (true) {
+            Dispatch dispatch;
+            try {
+                dispatch = dispatchQueue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                if (dispatch.line == null) {
+                    dispatch.consumer.ended();
+                } else {
+                    dispatch.consumer.consume(dispatch.line);
+                }
+            } catch (RuntimeException e) {
+                log.warn("process output consumer failed", e);
+            }
+            long drops = droppedLines.get();
+            if (drops != reportedDrops && dispatchQueue.isEmpty()) {
+                log.warn("{} lines of process output were dropped because consumers fell behind", drops - reportedDrops);
+                reportedDrops = drops;
+            }
+        }
+    }
+
+    private void enqueue(LineConsumer consumer, String line) {
+        if (!dispatchQueue.offer(new Dispatch(consumer, line))) {
+            droppedLines.incrementAndGet();
+        }
+    }
+
+    private static final class Dispatch {
+
+        private final LineConsumer consumer;
+        private final String line;
+
+        private Dispatch(LineConsumer consumer, String line) {
+            this.consumer = consumer;
+            this.line = line;
+        }
+    }
+
+    /**
+     * Registration of one stream with the pump. Its state is touched only by the
+     * pump thread until the registration is handed to a drain thread.
+     */
+    public final class Registration {
+
+        private final Process process;
+        private final InputStream stream;
+        private final Charset charset;
+        private final LinePrefilter prefilter;
+        private final LineConsumer consumer;
+        private byte[] lineBuffer = new byte[256];
+        private int lineLength;
+        private volatile boolean cancelled;
+        private boolean finished;
+        private boolean awaitingEof;
+
+        private Registration(Process process, InputStream stream, Charset charset, LinePrefilter prefilter, LineConsumer consumer) {
+            this.process = checkNotNull(process, "process");
+            this.stream = checkNotNull(stream, "stream");
+            this.charset = checkNotNull(charset, "charset");
+            this.prefilter = checkNotNull(prefilter, "prefilter");
+            this.consumer = checkNotNull(consumer, "consumer");
+        }
+
+        /**
+         * Stops draining the stream. The consumer's {@link LineConsumer#ended()} is still called.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Reads whatever is available without blocking. If nothing is available
+         * and the process has exited, marks the registration as awaiting end of
+         * file, because the stream may still be held open by a grandchild.
+         * @return true if any bytes were read
+         */
+        private boolean poll(byte[] readBuffer) throws IOException {
+            if (cancelled) {
+                finish();
+                return false;
+            }
+            // check for exit first, so output written just before exiting is still read below
+            boolean exited = hasExited();
+            boolean progressed = false;
+            int available;
+            while ((available = stream.available()) > 0) {
+                int r = stream.read(readBuffer, 0, Math.min(available, readBuffer.length));
+                if (r < 0) {
+                    finish();
+                    return true;
+                }
+                split(readBuffer, r);
+                progressed = true;
+            }
+            if (!progressed && exited) {
+                awaitingEof = true;
+            }
+            return progressed;
+        }
+
+        /**
+         * Reads the rest of the stream, blocking, until end of file. Runs on its
+         * own thread after the process has exited.
+         */
+        private void drain() {
+            byte[] readBuffer = new byte[READ_BUFFER_SIZE];
+            try {
+                int r;
+                while (!cancelled && (r = stream.read(readBuffer)) >= 0) {
+                    split(readBuffer, r);
+                }
+            } catch (IOException e) {
+                log.debug("reading process output failed", e);
+            }
+            finish();
+            try {
+                dispatchQueue.put(new Dispatch(consumer, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean hasExited() {
+            try {
+                process.exitValue();
+                return true;
+            } catch (IllegalThreadStateException e) {
+                return false;
+            }
+        }
+
+        private void split(byte[] bytes, int length) {
+            for (int i = 0; i < length; i++) {
+                byte b = bytes[i];
+                if (b == '\n') {
+                    emitLine();
+                } else {
+                    if (lineLength == lineBuffer.length) {
+                        if (lineLength >= MAX_LINE_LENGTH) {
+                            emitLine();
+                        } else {
+                            lineBuffer = Arrays.copyOf(lineBuffer, Math.min(MAX_LINE_LENGTH, lineBuffer.length * 2));
+                        }
+                    }
+                    lineBuffer[lineLength++] = b;
+                }
+            }
+        }
+
+        private void emitLine() {
+            int length = lineLength;
+            if (length > 0 && lineBuffer[length - 1] == '\r') {
+                length--;
+            }
+            if (prefilter.accept(lineBuffer, 0, length)) {
+                enqueue(consumer, new String(lineBuffer, 0, length, charset));
+            }
+            lineLength = 0;
+        }
+
+        private void finish() {
+            if (!finished) {
+                if (lineLength > 0) {
+                    emitLine();
+                }
+                finished = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Utility methods to signal a process together with all of its descendants.
+ * The dev server is a python process that starts java children, so stopping
+ * only the direct child leaks the processes that hold ports and memory.
+ *
+ * <p>On Java 9 and later, process ids and descendants come from the process
+ * handle API, looked up reflectively so that this library still runs on Java 7.
+ * Otherwise the pid is read from the process implementation and descendants
+ * are listed with {@code pgrep}.
+ */
+public final class ProcessTrees {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessTrees.class);
+
+    private ProcessTrees() {}
+
+    public enum Signal {
+        TERM,
+        KILL
+    }
+
+    public static boolean hasExited(Process process) {
+        try {
+            process.exitValue();
+            return true;
+        } catch (IllegalThreadStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the id of a process.
+     * @param process the process
+     * @return the pid, or null if it cannot be determined
+     */
+    public static Long pid(Process process) {
+        try {
+            Method pidMethod = Process.class.getMethod("pid");
+            return (Long) pidMethod.invoke(process);
+        } catch (NoSuchMethodException ignore) {
+            // Java 8 or earlier
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("could not get pid from process handle", e);
+        }
+        try {
+            Field pidField = process.getClass().getDeclaredField("pid");
+            pidField.setAccessible(true);
+            return ((Number) pidField.get(process)).longValue();
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("could not get pid of {}", process.getClass(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Lists the ids of all descendants of a process, children before grandchildren.
+     * @param process the process
+     * @return the ids; empty if the process has none or they cannot be listed
+     */
+    public static List<Long> descendants(Process process) {
+        List<Long> pids = descendantsFromHandle(process);
+        if (pids != null) {
+            return pids;
+        }
+        Long pid = pid(process);
+        pids = new ArrayList<>();
+        if (pid != null) {
+            collectChildren(pid, pids);
+        }
+        return pids;
+    }
+
+    private static List<Long> descendantsFromHandle(Process process) {
+        try {
+            Method descendantsMethod = Process.class.getMethod("descendants");
+            Method toArrayMethod = Class.forName("java.util.stream.Stream").getMethod("toArray");
+            Method handlePidMethod = Class.forName("java.lang.ProcessHandle").getMethod("pid");
+            Object[] handles = (Object[]) toArrayMethod.invoke(descendantsMethod.invoke(process));
+            List<Long> pids = new ArrayList<>(handles.length);
+            for (Object handle : handles) {
+                pids.add((Long) handlePidMethod.invoke(handle));
+            }
+            return pids;
+        } catch (NoSuchMethodException | ClassNotFoundException ignore) {
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("could not list descendants from process handle", e);
+            return null;
+        }
+    }
+
+    private static void collectChildren(long pid, List<Long> pids) {
+        String output;
+        try {
+            output = run("pgrep", "-P", String.valueOf(pid));
+        } catch (IOException e) {
+            log.debug("could not list children of {}: {}", pid, e.toString());
+            return;
+        }
+        for (String token : output.split("\\s+")) {
+            if (!token.isEmpty()) {
+                long child = Long.parseLong(token);
+                pids.add(child);
+                collectChildren(child, pids);
+            }
+        }
+    }
+
+    /**
+     * Sends a signal to a process and all of its descendants. The descendants
+     * are listed before the process is signalled, because once it dies they
+     * are no longer its descendants.
+     * @param process the process
+     * @param signal the signal
+     */
+    public static void signal(Process process, Signal signal) {
+        Long pid = pid(process);
+        if (pid == null) {
+            log.debug("pid unknown; destroying only the direct child");
+            process.destroy();
+            return;
+        }
+        List<Long> tree = new ArrayList<>();
+        tree.add(pid);
+        tree.addAll(descendants(process));
+        List<String> command = new ArrayList<>();
+        if (isWindows()) {
+            command.add("taskkill");
+            if (signal == Signal.KILL) {
+                command.add("/F");
+            }
+            command.add("/T");
+            command.add("/PID");
+            command.add(pid.toString());
+        } else {
+            command.add("kill");
+            command.add("-" + signal.name());
+            for (Long member : tree) {
+                command.add(member.toString());
+            }
+        }
+        log.debug("sending {} to process tree {}", signal, tree);
+        try {
+            run(command.toArray(new String[command.size()]));
+        } catch (IOException e) {
+            // some members may have exited already, which makes kill exit nonzero
+            log.debug("{}: {}", Joiner.on(' ').join(command), e.toString());
+        }
+        if (signal == Signal.KILL) {
+            process.destroy();
+        }
+    }
+
+    private static final Set<Process> killOnExit = Collections.newSetFromMap(new ConcurrentHashMap<Process, Boolean>());
+    private static final AtomicBoolean exitHookInstalled = new AtomicBoolean();
+
+    /**
+     * Arranges for a process tree to be killed when the JVM exits, unless
+     * {@link #cancelKillOnExit(Process)} is called first. All processes share one
+     * shutdown hook.
+     * @param process the process
+     */
+    public static void killOnExit(Process process) {
+        killOnExit.add(checkNotNull(process, "process"));
+        if (exitHookInstalled.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread("kill-dev-server-processes") {
+                @Override
+                public void run() {
+                    for (Process p : killOnExit) {
+                        if (!hasExited(p)) {
+                            signal(p, Signal.KILL);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    public static void cancelKillOnExit(Process process) {
+        killOnExit.remove(process);
+    }
+
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+    }
+
+    private static String run(String... command) throws IOException {
+        Process p = new ProcessBuilder(command).redirectErrorStream(true).start();
+        byte[] output = ByteStreams.toByteArray(p.getInputStream());
+        int status;
+        try {
+            status = p.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        }
+        String text = new String(output, StandardCharsets.UTF_8);
+        if (status != 0 && !text.trim().isEmpty()) {
+            throw new IOException(command[0] + " exited with " + status + ": " + text.trim());
+        }
+        return text;
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.net.HostAndPort;
+
+import java.io.IOException;
+
+/**
+ * Strategy that decides when a started dev server is ready to serve requests.
+ * A probe is an immutable description that can be shared by several runners;
+ * each start of a server gets its own {@link Check}.
+ * @see ReadinessProbes
+ */
+public interface ReadinessProbe {
+
+    /**
+     * Creates the state of one readiness check.
+     * @return a new check
+     */
+    Check newCheck();
+
+    /**
+     * State of one readiness check. Lines are fed to the check on the output
+     * dispatcher thread while {@link #isReady(HostAndPort)} is polled on the
+     * starting thread, so implementations must be thread-safe.
+     */
+    interface Check {
+
+        /**
+         * Observes a line of dev server output.
+         * @param line the line
+         */
+        void lineLogged(String line);
+
+        /**
+         * Checks once whether the server is ready. Should return quickly; a
+         * probe that connects to the server must use short timeouts.
+         * @param serverHost the host and port of the server's web server
+         * @return true if the server is ready
+         * @throws IOException if the check could not be made, which counts as not ready
+         */
+        boolean isReady(HostAndPort serverHost) throws IOException;
+    }
+}
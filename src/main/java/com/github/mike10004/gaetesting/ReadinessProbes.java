@@ -0,0 +1,193 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Static factory methods for {@link ReadinessProbe}s.
+ */
+public final class ReadinessProbes {
+
+    static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    static final int READ_TIMEOUT_MILLIS = 2000;
+
+    private static final Pattern DEV_SERVER_STARTED_PATTERN = Pattern.compile(
+            Pattern.quote("Dev App Server is now running") // App Engine V1
+            + "|" + Pattern.quote("INFO:oejs.Server:main: Started") // App Engine V2
+            + "|" + Pattern.quote("GET /_ah/health?IsLastSuccessful=yes HTTP/1.1\" 200 2"));
+
+    private ReadinessProbes() {}
+
+    /**
+     * Returns the address that network probes connect to, which is the
+     * server host with the default port if it names no port.
+     */
+    static HostAndPort probedHost(HostAndPort serverHost) {
+        return serverHost.withDefaultPort(GCloudBase.DEFAULT_SERVER_PORT);
+    }
+
+    /**
+     * Returns a probe that is satisfied when the server logs one of the lines
+     * that the dev server prints when it has started.
+     * @return the probe
+     */
+    public static ReadinessProbe devServerStartedLog() {
+        return logPattern(DEV_SERVER_STARTED_PATTERN);
+    }
+
+    /**
+     * Returns a probe that is satisfied once any line of output contains a match of a pattern.
+     * @param pattern the pattern
+     * @return the probe
+     */
+    public static ReadinessProbe logPattern(final Pattern pattern) {
+        checkNotNull(pattern, "pattern");
+        return new ReadinessProbe() {
+            @Override
+            public Check newCheck() {
+                return new Check() {
+                    private volatile boolean matched;
+
+                    @Override
+                    public void lineLogged(String line) {
+                        if (!matched && pattern.matcher(line).find()) {
+                            matched = true;
+                        }
+                    }
+
+                    @Override
+                    public boolean isReady(HostAndPort serverHost) {
+                        return matched;
+                    }
+                };
+            }
+
+            @Override
+            public String toString() {
+                return "logPattern(" + pattern + ")";
+            }
+        };
+    }
+
+    /**
+     * Returns a probe that is satisfied when the server's web server port accepts connections.
+     * @return the probe
+     */
+    public static ReadinessProbe tcpPort() {
+        return new StatelessProbe("tcpPort") {
+            @Override
+            public boolean isReady(HostAndPort serverHost) throws IOException {
+                HostAndPort host = probedHost(serverHost);
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(host.getHost(), host.getPort()), CONNECT_TIMEOUT_MILLIS);
+                    return true;
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a probe that is satisfied when a GET request for a path on the
+     * server's web server gets a response with an expected status.
+     * @param path the path, such as "/" or "/_ah/health"
+     * @param expectedStatus the expected response status
+     * @return the probe
+     */
+    public static ReadinessProbe httpGet(final String path, final int expectedStatus) {
+        checkArgument(path.startsWith("/"), "path must start with /: %s", path);
+        return new StatelessProbe("httpGet(" + path + ", " + expectedStatus + ")") {
+            @Override
+            public boolean isReady(HostAndPort serverHost) throws IOException {
+                HostAndPort host = probedHost(serverHost);
+                URL url = new URL("http", host.getHost(), host.getPort(), path);
+                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                try {
+                    connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+                    connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+                    connection.setInstanceFollowRedirects(false);
+                    return connection.getResponseCode() == expectedStatus;
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a probe that is satisfied when all of the given probes are satisfied.
+     * @param probes the probes
+     * @return the probe
+     */
+    public static ReadinessProbe allOf(ReadinessProbe... probes) {
+        final ImmutableList<ReadinessProbe> components = ImmutableList.copyOf(probes);
+        checkArgument(!components.isEmpty(), "at least one probe is required");
+        return new ReadinessProbe() {
+            @Override
+            public Check newCheck() {
+                final List<Check> checks = new ArrayList<>(components.size());
+                for (ReadinessProbe probe : components) {
+                    checks.add(probe.newCheck());
+                }
+                return new Check() {
+                    @Override
+                    public void lineLogged(String line) {
+                        for (Check check : checks) {
+                            check.lineLogged(line);
+                        }
+                    }
+
+                    @Override
+                    public boolean isReady(HostAndPort serverHost) throws IOException {
+                        // cheap log checks usually come first, so network probes wait for them
+                        for (Check check : checks) {
+                            if (!check.isReady(serverHost)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                };
+            }
+
+            @Override
+            public String toString() {
+                return "allOf" + components;
+            }
+        };
+    }
+
+    private static abstract class StatelessProbe implements ReadinessProbe, ReadinessProbe.Check {
+
+        private final String description;
+
+        protected StatelessProbe(String description) {
+            this.description = description;
+        }
+
+        @Override
+        public Check newCheck() {
+            return this;
+        }
+
+        @Override
+        public void lineLogged(String line) {
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.net.HostAndPort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Polls a readiness check until it passes, the process exits, or a deadline
+ * passes. Polls back off exponentially between an initial and a maximum
+ * interval, and every line of output wakes the waiter early, so a log probe
+ * is noticed as soon as its line is dispatched.
+ */
+class ReadinessWaiter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadinessWaiter.class);
+
+    public enum Outcome {
+        READY,
+        PROCESS_EXITED,
+        TIMED_OUT
+    }
+
+    private final ReadinessProbe.Check check;
+    private final long timeoutNanos;
+    private final long initialIntervalNanos;
+    private final long maxIntervalNanos;
+    private final Object monitor = new Object();
+    private boolean outputChanged;
+
+    public ReadinessWaiter(ReadinessProbe.Check check, long timeout, long initialInterval, long maxInterval, TimeUnit unit) {
+        this.check = checkNotNull(check, "check");
+        checkArgument(timeout > 0, "timeout must be positive: %s", timeout);
+        checkArgument(initialInterval > 0 && initialInterval <= maxInterval, "need 0 < initialInterval <= maxInterval: %s, %s", initialInterval, maxInterval);
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.initialIntervalNanos = unit.toNanos(initialInterval);
+        this.maxIntervalNanos = unit.toNanos(maxInterval);
+    }
+
+    /**
+     * Feeds a line of output to the check and wakes the waiter.
+     * @param line the line
+     */
+    public void lineLogged(String line) {
+        check.lineLogged(line);
+        signal();
+    }
+
+    /**
+     * Wakes the waiter without a line, for example when the output has ended.
+     */
+    public void signal() {
+        synchronized (monitor) {
+            outputChanged = true;
+            monitor.notifyAll();
+        }
+    }
+
+    /**
+     * Waits until the server is ready.
+     * @param process the server process
+     * @param serverHost the host and port of the server's web server
+     * @return the outcome
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Outcome await(Process process, HostAndPort serverHost) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        long interval = initialIntervalNanos;
+        while (true) {
+            if (isReady(serverHost)) {
+                return Outcome.READY;
+            }
+            if (ProcessTrees.hasExited(process)) {
+                return Outcome.PROCESS_EXITED;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return Outcome.TIMED_OUT;
+            }
+            synchronized (monitor) {
+                if (!outputChanged) {
+                    TimeUnit.NANOSECONDS.timedWait(monitor, Math.min(interval, remaining));
+                }
+                if (outputChanged) {
+                    outputChanged = false;
+                } else {
+                    interval = Math.min(maxIntervalNanos, interval * 2);
+                }
+            }
+        }
+    }
+
+    private boolean isReady(HostAndPort serverHost) {
+        try {
+            return check.isReady(serverHost);
+        } catch (IOException e) {
+            log.trace("not ready: {}", e.toString());
+            return false;
+        }
+    }
+}
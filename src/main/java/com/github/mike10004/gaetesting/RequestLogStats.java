@@ -0,0 +1,200 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.collect.ImmutableSortedMap;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Request statistics gathered from the access log lines that the dev server
+ * prints, such as
+ * <pre>
+ * INFO     2016-11-01 12:00:00,000 module.py:788] default: "GET /foo?x=1 HTTP/1.1" 200 1234
+ * </pre>
+ * For each method and path, without query string, it counts requests and
+ * responses by status. When a line ends with a duration such as {@code 12ms}
+ * or {@code 0.012s}, the duration goes into a latency histogram. Health checks
+ * are left out, because their lines are sampled before they are decoded.
+ * Thread-safe.
+ */
+public class RequestLogStats {
+
+    private static final Pattern ACCESS_LINE = Pattern.compile(
+            "\"([A-Z]+) (\\S+) HTTP/\\d(?:\\.\\d)?\" (\\d{3}) (?:\\d+|-)(?:.*\\s(\\d+(?:\\.\\d+)?)(ms|s))?\\s*$");
+    private static final String HEALTH_CHECK_PATH = "/_ah/health";
+
+    /**
+     * Upper bounds, in milliseconds, of the latency histogram buckets. The last
+     * bucket holds everything slower.
+     */
+    static final long[] LATENCY_BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private final Map<String, EndpointStats> endpoints = new TreeMap<>();
+
+    /**
+     * Records a line if it is an access log line.
+     * @param line the line
+     * @return true if the line was an access log line
+     */
+    public boolean record(String line) {
+        Matcher m = ACCESS_LINE.matcher(line);
+        if (!m.find()) {
+            return false;
+        }
+        String path = m.group(2);
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        if (path.equals(HEALTH_CHECK_PATH)) {
+            return true;
+        }
+        int status = Integer.parseInt(m.group(3));
+        double latencyMillis = -1;
+        if (m.group(4) != null) {
+            latencyMillis = Double.parseDouble(m.group(4)) * ("s".equals(m.group(5)) ? 1000 : 1);
+        }
+        String key = m.group(1) + " " + path;
+        synchronized (this) {
+            EndpointStats stats = endpoints.get(key);
+            if (stats == null) {
+                stats = new EndpointStats();
+                endpoints.put(key, stats);
+            }
+            stats.record(status, latencyMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Returns copies of the statistics, keyed by method and path such as {@code "GET /foo"}.
+     * @return the statistics
+     */
+    public synchronized SortedMap<String, EndpointStats> getEndpoints() {
+        ImmutableSortedMap.Builder<String, EndpointStats> copy = ImmutableSortedMap.naturalOrder();
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy.build();
+    }
+
+    public synchronized boolean isEmpty() {
+        return endpoints.isEmpty();
+    }
+
+    /**
+     * Formats the statistics as a table with one row per endpoint.
+     * @return the report
+     */
+    public String toReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-40s %7s %-24s %9s %9s %9s%n", "endpoint", "count", "statuses", "p50 ms", "p95 ms", "max ms"));
+        for (Map.Entry<String, EndpointStats> entry : getEndpoints().entrySet()) {
+            EndpointStats stats = entry.getValue();
+            sb.append(String.format("%-40s %7d %-24s %9s %9s %9s%n", entry.getKey(), stats.getCount(), stats.getStatusCounts(),
+                    formatMillis(stats.getLatencyPercentileMillis(50)), formatMillis(stats.getLatencyPercentileMillis(95)),
+                    formatMillis(stats.getMaxLatencyMillis())));
+        }
+        return sb.toString();
+    }
+
+    private static String formatMillis(double millis) {
+        if (millis < 0) {
+            return "-";
+        }
+        if (Double.isInfinite(millis)) {
+            return ">" + LATENCY_BUCKET_BOUNDS_MILLIS[LATENCY_BUCKET_BOUNDS_MILLIS.length - 1];
+        }
+        return String.format("%.1f", millis);
+    }
+
+    /**
+     * Statistics of one method and path.
+     */
+    public static class EndpointStats {
+
+        private long count;
+        private final SortedMap<Integer, Long> statusCounts = new TreeMap<>();
+        private final long[] latencyBuckets = new long[LATENCY_BUCKET_BOUNDS_MILLIS.length + 1];
+        private long timedCount;
+        private double maxLatencyMillis = -1;
+
+        private void record(int status, double latencyMillis) {
+            count++;
+            Long n = statusCounts.get(status);
+            statusCounts.put(status, n == null ? 1 : n + 1);
+            if (latencyMillis >= 0) {
+                timedCount++;
+                maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+                int bucket = 0;
+                while (bucket < LATENCY_BUCKET_BOUNDS_MILLIS.length && latencyMillis > LATENCY_BUCKET_BOUNDS_MILLIS[bucket]) {
+                    bucket++;
+                }
+                latencyBuckets[bucket]++;
+            }
+        }
+
+        private EndpointStats copy() {
+            EndpointStats copy = new EndpointStats();
+            copy.count = count;
+            copy.statusCounts.putAll(statusCounts);
+            System.arraycopy(latencyBuckets, 0, copy.latencyBuckets, 0, latencyBuckets.length);
+            copy.timedCount = timedCount;
+            copy.maxLatencyMillis = maxLatencyMillis;
+            return copy;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public SortedMap<Integer, Long> getStatusCounts() {
+            return ImmutableSortedMap.copyOfSorted(statusCounts);
+        }
+
+        /**
+         * Returns the number of requests whose log line had a duration.
+         * @return the count
+         */
+        public long getTimedCount() {
+            return timedCount;
+        }
+
+        /**
+         * Returns the counts of the latency histogram buckets, whose upper bounds
+         * are {@link #LATENCY_BUCKET_BOUNDS_MILLIS} followed by infinity.
+         * @return a copy of the counts
+         */
+        public long[] getLatencyHistogram() {
+            return latencyBuckets.clone();
+        }
+
+        public double getMaxLatencyMillis() {
+            return maxLatencyMillis;
+        }
+
+        /**
+         * Estimates a latency percentile as the upper bound of the bucket that contains it.
+         * @param percentile the percentile, from 0 to 100
+         * @return the estimate in milliseconds, infinity if it falls in the last
+         *         bucket, or -1 if no request was timed
+         */
+        public double getLatencyPercentileMillis(double percentile) {
+            if (timedCount == 0) {
+                return -1;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * timedCount));
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKET_BOUNDS_MILLIS.length; i++) {
+                seen += latencyBuckets[i];
+                if (seen >= rank) {
+                    return LATENCY_BUCKET_BOUNDS_MILLIS[i];
+                }
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+    }
+}
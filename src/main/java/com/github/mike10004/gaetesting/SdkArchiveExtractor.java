@@ -0,0 +1,280 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferPhase;
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferProgressListener;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Extracts an SDK zip archive using a bounded pool of worker threads. Each worker
+ * opens its own handle on the archive and streams its share of the entries through
+ * a single fixed-size buffer, so no entry is ever held on the heap in full.
+ */
+public class SdkArchiveExtractor {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_DEFAULT_PARALLELISM = 4;
+
+    private final int parallelism;
+    private final int bufferSize;
+    private final Predicate<String> entryFilter;
+    private TransferProgressListener progressListener;
+
+    public SdkArchiveExtractor(int parallelism) {
+        this(parallelism, DEFAULT_BUFFER_SIZE);
+    }
+
+    public SdkArchiveExtractor(int parallelism, int bufferSize) {
+        this(parallelism, bufferSize, Predicates.<String>alwaysTrue());
+    }
+
+    /**
+     * Constructs an extractor that extracts only some of the file entries.
+     * @param parallelism the number of workers
+     * @param bufferSize the size of each worker's buffer
+     * @param entryFilter predicate applied to entry names relative to the archive's base directory
+     */
+    public SdkArchiveExtractor(int parallelism, int bufferSize, Predicate<String> entryFilter) {
+        checkArgument(parallelism > 0, "parallelism must be positive: %s", parallelism);
+        checkArgument(bufferSize > 0, "buffer size must be positive: %s", bufferSize);
+        this.parallelism = parallelism;
+        this.bufferSize = bufferSize;
+        this.entryFilter = checkNotNull(entryFilter, "entryFilter");
+    }
+
+    /**
+     * Returns the number of workers used when the caller does not specify one.
+     * Extraction is mostly bound by disk writes, so more than a few workers
+     * rarely helps.
+     * @return the default parallelism
+     */
+    public static int defaultParallelism() {
+        return Math.max(1, Math.min(MAX_DEFAULT_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the listener that receives the progress of extraction, measured in
+     * uncompressed bytes written.
+     * @param progressListener the listener, or null to report nothing
+     */
+    public void setProgressListener(TransferProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Extracts the file entries of an archive beneath a destination directory.
+     * Files that already exist in the destination are not overwritten. If the
+     * first entry of the archive is a directory and every file entry is beneath
+     * it, the returned directory is that subdirectory of the destination.
+     * @param archive the zip file
+     * @param destinationDir the directory to extract into
+     * @return the root directory of the extracted files
+     * @throws IOException on I/O failure
+     */
+    public File extract(File archive, File destinationDir) throws IOException {
+        checkNotNull(archive, "archive");
+        checkNotNull(destinationDir, "destinationDir");
+        List<ZipEntry> fileEntries = new ArrayList<>();
+        String sdkBaseDirSuffix;
+        try (ZipFile zipFile = new ZipFile(archive)) {
+            sdkBaseDirSuffix = scanEntries(zipFile, fileEntries);
+        }
+        fileEntries = filter(fileEntries, sdkBaseDirSuffix);
+        long totalSize = 0;
+        for (ZipEntry entry : fileEntries) {
+            totalSize += Math.max(0, entry.getSize());
+        }
+        TransferMeter meter = TransferMeter.start(progressListener, TransferPhase.UNPACK, archive.getName(), totalSize);
+        List<List<ZipEntry>> partitions = partition(fileEntries, Math.min(parallelism, Math.max(1, fileEntries.size())));
+        if (partitions.size() == 1) {
+            new ExtractionTask(archive, destinationDir, partitions.get(0), meter).call();
+        } else {
+            extractInParallel(archive, destinationDir, partitions, meter);
+        }
+        meter.finish();
+        if (sdkBaseDirSuffix == null) {
+            return destinationDir;
+        }
+        return new File(destinationDir, sdkBaseDirSuffix);
+    }
+
+    private List<ZipEntry> filter(List<ZipEntry> fileEntries, String sdkBaseDirSuffix) {
+        int prefixLength = sdkBaseDirSuffix == null ? 0 : sdkBaseDirSuffix.length();
+        List<ZipEntry> included = new ArrayList<>(fileEntries.size());
+        for (ZipEntry entry : fileEntries) {
+            if (entryFilter.apply(entry.getName().substring(prefixLength))) {
+                included.add(entry);
+            }
+        }
+        return included;
+    }
+
+    /**
+     * Collects the file entries of the archive and determines the base directory suffix.
+     * @return the name of the initial directory entry if all file entries are beneath it, otherwise null
+     */
+    private static String scanEntries(ZipFile zipFile, List<ZipEntry> fileEntries) throws IOException {
+        Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+        if (!zipEntries.hasMoreElements()) {
+            throw new IOException("The SDK zip archive appears corrupted.  There are no entries in the zip index.");
+        }
+        String sdkBaseDirSuffix = null;
+        ZipEntry firstEntry = zipEntries.nextElement();
+        if (firstEntry.isDirectory()) {
+            sdkBaseDirSuffix = firstEntry.getName();
+        } else {
+            fileEntries.add(firstEntry);
+        }
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            if (!zipEntry.isDirectory()) {
+                fileEntries.add(zipEntry);
+            }
+        }
+        for (ZipEntry zipEntry : fileEntries) {
+            if (sdkBaseDirSuffix == null || !zipEntry.getName().startsWith(sdkBaseDirSuffix)) {
+                //We found an entry that doesn't use this initial base directory, oh well, just set it to null.
+                return null;
+            }
+        }
+        return sdkBaseDirSuffix;
+    }
+
+    /**
+     * Splits entries into buckets of roughly equal total size, assigning the
+     * largest entries first so one big jar does not end up queued behind
+     * a long tail of small files.
+     */
+    static List<List<ZipEntry>> partition(List<ZipEntry> entries, int numBuckets) {
+        List<ZipEntry> bySizeDescending = new ArrayList<>(entries);
+        Collections.sort(bySizeDescending, new Comparator<ZipEntry>() {
+            @Override
+            public int compare(ZipEntry o1, ZipEntry o2) {
+                return Long.compare(Math.max(0, o2.getSize()), Math.max(0, o1.getSize()));
+            }
+        });
+        List<List<ZipEntry>> buckets = new ArrayList<>(numBuckets);
+        long[] bucketSizes = new long[numBuckets];
+        for (int i = 0; i < numBuckets; i++) {
+            buckets.add(new ArrayList<ZipEntry>());
+        }
+        for (ZipEntry entry : bySizeDescending) {
+            int smallest = 0;
+            for (int i = 1; i < numBuckets; i++) {
+                if (bucketSizes[i] < bucketSizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            buckets.get(smallest).add(entry);
+            bucketSizes[smallest] += Math.max(0, entry.getSize());
+        }
+        return buckets;
+    }
+
+    private void extractInParallel(File archive, File destinationDir, List<List<ZipEntry>> partitions, TransferMeter meter) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size(), new ThreadFactoryBuilder()
+                .setNameFormat("sdk-extractor-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            List<Future<Void>> futures = new ArrayList<>(partitions.size());
+            for (List<ZipEntry> partition : partitions) {
+                futures.add(executor.submit(new ExtractionTask(archive, destinationDir, partition, meter)));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while extracting " + archive, e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("failed to extract " + archive, cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class ExtractionTask implements Callable<Void> {
+
+        private final File archive;
+        private final File destinationDir;
+        private final List<ZipEntry> entries;
+        private final TransferMeter meter;
+
+        private ExtractionTask(File archive, File destinationDir, List<ZipEntry> entries, TransferMeter meter) {
+            this.archive = archive;
+            this.destinationDir = destinationDir;
+            this.entries = entries;
+            this.meter = meter;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            byte[] buffer = new byte[bufferSize];
+            try (ZipFile zipFile = new ZipFile(archive)) {
+                for (ZipEntry entry : entries) {
+                    File zipEntryDestination = new File(destinationDir, entry.getName());
+                    if (!zipEntryDestination.exists()) {
+                        Files.createParentDirs(zipEntryDestination);
+                        try (InputStream in = zipFile.getInputStream(entry)) {
+                            writeAtomically(in, zipEntryDestination, buffer, meter);
+                        }
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes to a sibling file and renames it into place, so an interrupted
+     * extraction never leaves a truncated file at the destination path.
+     */
+    private static void writeAtomically(InputStream in, File destination, byte[] buffer, TransferMeter meter) throws IOException {
+        File partFile = new File(destination.getParentFile(), destination.getName() + ".part");
+        try (OutputStream out = new FileOutputStream(partFile)) {
+            int r;
+            while ((r = in.read(buffer)) != -1) {
+                out.write(buffer, 0, r);
+                meter.add(r);
+            }
+        }
+        if (!partFile.renameTo(destination)) {
+            Files.move(partFile, destination);
+        }
+    }
+}
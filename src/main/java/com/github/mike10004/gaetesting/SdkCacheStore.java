@@ -0,0 +1,259 @@
+package com.github.mike10004.gaetesting;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Disk cache of SDK archives and their unpacked trees, addressed by the SHA-256
+ * hash of the archive. Each entry lives in a subdirectory named by the hash. An
+ * index records the SDK version, approximate size and last access time of each
+ * entry, and when the total size exceeds the budget, the least recently used
+ * entries are evicted. An entry accessed within the eviction grace period is
+ * never evicted, because a dev server started from it may still be using its
+ * files; the store may exceed its budget until the period ends. {@link StagingCache}
+ * uses the same layout for staging output, keyed by application content instead
+ * of archive.
+ */
+public class SdkCacheStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SdkCacheStore.class);
+
+    public static final String DEFAULT_DIRECTORY_NAME = "gae-testing-support-sdk-cache";
+    public static final long DEFAULT_MAX_BYTES = 2L * 1024 * 1024 * 1024;
+    public static final long DEFAULT_EVICTION_GRACE_MILLIS = TimeUnit.HOURS.toMillis(12);
+
+    private static final String INDEX_FILENAME = "index.properties";
+    private static final String INDEX_LOCK_FILENAME = "index.lock";
+    private static final String INCOMING_DIRECTORY_NAME = "incoming";
+    private static final long INDEX_LOCK_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long ACCESS_RECORD_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final File rootDirectory;
+    private final long maxBytes;
+    private final long evictionGraceMillis;
+
+    public SdkCacheStore(File rootDirectory) {
+        this(rootDirectory, DEFAULT_MAX_BYTES);
+    }
+
+    public SdkCacheStore(File rootDirectory, long maxBytes) {
+        this(rootDirectory, maxBytes, DEFAULT_EVICTION_GRACE_MILLIS);
+    }
+
+    /**
+     * Creates a store.
+     * @param rootDirectory the root directory
+     * @param maxBytes the size budget
+     * @param evictionGraceMillis how long after its last access an entry is protected from eviction
+     */
+    public SdkCacheStore(File rootDirectory, long maxBytes, long evictionGraceMillis) {
+        this.rootDirectory = checkNotNull(rootDirectory, "rootDirectory");
+        checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+        checkArgument(evictionGraceMillis >= 0, "evictionGraceMillis must be nonnegative: %s", evictionGraceMillis);
+        this.maxBytes = maxBytes;
+        this.evictionGraceMillis = evictionGraceMillis;
+    }
+
+    public File getRootDirectory() {
+        return rootDirectory;
+    }
+
+    public File entryDirectory(String archiveSha256) {
+        return new File(rootDirectory, archiveSha256);
+    }
+
+    /**
+     * Returns the lock file that guards an entry. Lock files are kept outside the
+     * entry directories so that evicting an entry does not delete its lock.
+     * @param archiveSha256 the entry key
+     * @return the lock file
+     */
+    public File entryLockFile(String archiveSha256) {
+        return new File(rootDirectory, archiveSha256 + ".lock");
+    }
+
+    /**
+     * Returns the directory where archives whose hash is not yet known are placed
+     * before they are moved into their entry directory.
+     * @return the directory
+     */
+    public File incomingDirectory() {
+        return new File(rootDirectory, INCOMING_DIRECTORY_NAME);
+    }
+
+    /**
+     * Looks up the hash of the most recently used archive of an SDK version.
+     * @param version the SDK version
+     * @return the archive hash, or null if no entry has that version
+     * @throws IOException on I/O failure
+     */
+    public String lookUpVersion(String version) throws IOException {
+        Entry latest = null;
+        for (Entry entry : readIndex().values()) {
+            if (version.equals(entry.version) && (latest == null || entry.lastAccess > latest.lastAccess)) {
+                latest = entry;
+            }
+        }
+        return latest == null ? null : latest.archiveSha256;
+    }
+
+    /**
+     * Records that an entry was used, and evicts least recently used entries if
+     * the store is over budget. The entry being recorded is never evicted. The
+     * index is not rewritten if it already records the entry with the same
+     * version and size and an access within the last minute.
+     * @param archiveSha256 the entry key
+     * @param version the SDK version of the entry
+     * @param sizeBytes the approximate size of the entry on disk
+     * @throws IOException on I/O failure
+     */
+    public void recordAccess(String archiveSha256, String version, long sizeBytes) throws IOException {
+        recordAccess(archiveSha256, version, sizeBytes, System.currentTimeMillis());
+    }
+
+    @SuppressWarnings("try")
+    void recordAccess(String archiveSha256, String version, long sizeBytes, long accessTime) throws IOException {
+        // the index is replaced atomically, so it can be read without the lock
+        if (isRecentlyRecorded(readIndex().get(archiveSha256), version, sizeBytes, accessTime)) {
+            return;
+        }
+        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(new File(rootDirectory, INDEX_LOCK_FILENAME), INDEX_LOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+            Map<String, Entry> index = readIndex();
+            index.put(archiveSha256, new Entry(archiveSha256, version, sizeBytes, accessTime));
+            evict(index, archiveSha256, accessTime);
+            writeIndex(index);
+        }
+    }
+
+    private static boolean isRecentlyRecorded(Entry entry, String version, long sizeBytes, long accessTime) {
+        return entry != null
+                && entry.version.equals(version)
+                && entry.sizeBytes == sizeBytes
+                && entry.lastAccess <= accessTime
+                && accessTime - entry.lastAccess < ACCESS_RECORD_INTERVAL_MILLIS;
+    }
+
+    private void evict(Map<String, Entry> index, String protectedKey, long now) {
+        long total = 0;
+        for (Entry entry : index.values()) {
+            total += entry.sizeBytes;
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        List<Entry> leastRecentFirst = new ArrayList<>(index.values());
+        Collections.sort(leastRecentFirst, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry o1, Entry o2) {
+                return Long.compare(o1.lastAccess, o2.lastAccess);
+            }
+        });
+        for (Entry entry : leastRecentFirst) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (entry.archiveSha256.equals(protectedKey)) {
+                continue;
+            }
+            if (now - entry.lastAccess < evictionGraceMillis) {
+                break; // this and all later entries were accessed within the grace period
+            }
+            if (evict(entry)) {
+                index.remove(entry.archiveSha256);
+                total -= entry.sizeBytes;
+            }
+        }
+        if (total > maxBytes) {
+            log.info("cache {} holds {} bytes, over its budget of {} bytes, but no more entries can be evicted", rootDirectory, total, maxBytes);
+        }
+    }
+
+    /**
+     * Deletes an entry unless it is locked by a thread or process that is resolving it.
+     */
+    @SuppressWarnings("try")
+    private boolean evict(Entry entry) {
+        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(entryLockFile(entry.archiveSha256), 0, TimeUnit.MILLISECONDS)) {
+            log.info("evicting {} ({} bytes) from {}", entry.version, entry.sizeBytes, rootDirectory);
+            FileUtils.deleteDirectory(entryDirectory(entry.archiveSha256));
+            return true;
+        } catch (IOException e) {
+            log.debug("not evicting {}: {}", entry.archiveSha256, e.toString());
+            return false;
+        }
+    }
+
+    Map<String, Entry> readIndex() throws IOException {
+        Map<String, Entry> index = new LinkedHashMap<>();
+        File indexFile = new File(rootDirectory, INDEX_FILENAME);
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(indexFile)) {
+            p.load(in);
+        }
+        for (String name : p.stringPropertyNames()) {
+            if (name.endsWith(".version")) {
+                String key = name.substring(0, name.length() - ".version".length());
+                try {
+                    index.put(key, new Entry(key, p.getProperty(name),
+                            Long.parseLong(p.getProperty(key + ".size", "0")),
+                            Long.parseLong(p.getProperty(key + ".lastAccess", "0"))));
+                } catch (NumberFormatException e) {
+                    log.debug("ignoring malformed index entry {}", key);
+                }
+            }
+        }
+        return index;
+    }
+
+    private void writeIndex(Map<String, Entry> index) throws IOException {
+        Properties p = new Properties();
+        for (Entry entry : index.values()) {
+            p.setProperty(entry.archiveSha256 + ".version", entry.version);
+            p.setProperty(entry.archiveSha256 + ".size", String.valueOf(entry.sizeBytes));
+            p.setProperty(entry.archiveSha256 + ".lastAccess", String.valueOf(entry.lastAccess));
+        }
+        File indexFile = new File(rootDirectory, INDEX_FILENAME);
+        File tempFile = new File(rootDirectory, INDEX_FILENAME + ".tmp");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            p.store(out, "SDK cache index");
+        }
+        DownloadingSdkResolver.moveIntoPlace(tempFile, indexFile);
+    }
+
+    static class Entry {
+
+        public final String archiveSha256;
+        public final String version;
+        public final long sizeBytes;
+        public final long lastAccess;
+
+        Entry(String archiveSha256, String version, long sizeBytes, long lastAccess) {
+            this.archiveSha256 = archiveSha256;
+            this.version = version;
+            this.sizeBytes = sizeBytes;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
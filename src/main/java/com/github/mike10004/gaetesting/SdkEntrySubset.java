@@ -0,0 +1,95 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Set of SDK archive entries, described by paths relative to the SDK root. A
+ * path ending in {@code /} includes the whole subtree, a path ending in
+ * {@code /*} includes only the files directly in that directory, and any other
+ * path includes the file with that name.
+ */
+final class SdkEntrySubset implements Predicate<String> {
+
+    private final ImmutableList<String> paths;
+
+    private SdkEntrySubset(ImmutableList<String> paths) {
+        this.paths = paths;
+    }
+
+    public static SdkEntrySubset of(Collection<String> paths) {
+        for (String path : paths) {
+            checkArgument(!path.isEmpty() && !path.contains(","), "invalid subset path: %s", path);
+        }
+        return new SdkEntrySubset(ImmutableList.copyOf(paths));
+    }
+
+    /**
+     * Parses the form produced by {@link #toString()}.
+     */
+    public static SdkEntrySubset parse(String spec) {
+        return of(Splitter.on(',').omitEmptyStrings().splitToList(spec));
+    }
+
+    @Override
+    public boolean apply(String relativeName) {
+        for (String path : paths) {
+            if (path.endsWith("/*")) {
+                String dir = path.substring(0, path.length() - 1);
+                if (relativeName.startsWith(dir) && relativeName.indexOf('/', dir.length()) < 0) {
+                    return true;
+                }
+            } else if (path.endsWith("/") ? relativeName.startsWith(path) : relativeName.equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether every entry included by another subset is included by this one.
+     * @param other the other subset; null means the whole archive
+     * @return true if this subset includes the other
+     */
+    public boolean covers(SdkEntrySubset other) {
+        if (other == null) {
+            return false;
+        }
+        for (String wanted : other.paths) {
+            if (!paths.contains(wanted) && !coversPath(wanted)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean coversPath(String wanted) {
+        for (String path : paths) {
+            if (path.endsWith("/") && wanted.startsWith(path)) {
+                return true;
+            }
+        }
+        return !wanted.endsWith("/") && !wanted.endsWith("/*") && apply(wanted);
+    }
+
+    /**
+     * Returns a subset that includes the entries of this subset and another.
+     */
+    public SdkEntrySubset union(SdkEntrySubset other) {
+        LinkedHashSet<String> union = new LinkedHashSet<>(paths);
+        union.addAll(other.paths);
+        return new SdkEntrySubset(ImmutableList.copyOf(union));
+    }
+
+    @Override
+    public String toString() {
+        return Joiner.on(',').join(paths);
+    }
+}
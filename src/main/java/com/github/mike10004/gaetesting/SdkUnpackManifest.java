@@ -0,0 +1,208 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Record of a completed SDK unpack. The manifest is written next to the archive
+ * once every entry has been extracted, and lets later resolutions skip listing
+ * the archive and checking each destination file.
+ */
+class SdkUnpackManifest {
+
+    private static final String MANIFEST_SUFFIX = ".unpacked.properties";
+
+    private static final String KEY_ARCHIVE_PATH = "archive.path";
+    private static final String KEY_ARCHIVE_LENGTH = "archive.length";
+    private static final String KEY_ARCHIVE_LAST_MODIFIED = "archive.lastModified";
+    private static final String KEY_ARCHIVE_SHA256 = "archive.sha256";
+    private static final String KEY_ENTRY_COUNT = "entries.count";
+    private static final String KEY_ENTRY_TOTAL_SIZE = "entries.totalSize";
+    private static final String KEY_ENTRY_SUBSET = "entries.subset";
+    private static final String KEY_SDK_ROOT = "sdk.root";
+
+    public final String archivePath;
+    public final long archiveLength;
+    public final long archiveLastModified;
+    public final String archiveSha256;
+    public final int entryCount;
+    public final long entryTotalSize;
+    /**
+     * Subset of entries that was extracted, or null if the whole archive was extracted.
+     */
+    public final SdkEntrySubset entrySubset;
+    public final String sdkRoot;
+
+    SdkUnpackManifest(String archivePath, long archiveLength, long archiveLastModified, String archiveSha256, int entryCount, long entryTotalSize, SdkEntrySubset entrySubset, String sdkRoot) {
+        this.archivePath = checkNotNull(archivePath);
+        this.archiveLength = archiveLength;
+        this.archiveLastModified = archiveLastModified;
+        this.archiveSha256 = checkNotNull(archiveSha256);
+        this.entryCount = entryCount;
+        this.entryTotalSize = entryTotalSize;
+        this.entrySubset = entrySubset;
+        this.sdkRoot = checkNotNull(sdkRoot);
+    }
+
+    /**
+     * Returns the pathname of the manifest that describes the unpacking of an archive.
+     * @param sdkArchive the archive
+     * @return the manifest pathname
+     */
+    public static File manifestFileFor(File sdkArchive) {
+        return new File(sdkArchive.getParentFile(), sdkArchive.getName() + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Builds a manifest describing a completed unpack.
+     * @param sdkArchive the archive that was unpacked
+     * @param archiveHash the SHA-256 hash of the archive, or null if it must be computed
+     * @param sdkRoot the SDK root directory produced by the unpack
+     * @return the manifest
+     * @throws IOException on I/O failure
+     */
+    public static SdkUnpackManifest describe(File sdkArchive, HashCode archiveHash, File sdkRoot) throws IOException {
+        return describe(sdkArchive, archiveHash, sdkRoot, null);
+    }
+
+    /**
+     * Builds a manifest describing a completed unpack of some of the archive's entries.
+     * @param sdkArchive the archive that was unpacked
+     * @param archiveHash the SHA-256 hash of the archive, or null if it must be computed
+     * @param sdkRoot the SDK root directory produced by the unpack
+     * @param entrySubset the entries that were extracted, or null if all were extracted
+     * @return the manifest
+     * @throws IOException on I/O failure
+     */
+    public static SdkUnpackManifest describe(File sdkArchive, HashCode archiveHash, File sdkRoot, SdkEntrySubset entrySubset) throws IOException {
+        if (archiveHash == null) {
+            archiveHash = Files.asByteSource(sdkArchive).hash(Hashing.sha256());
+        }
+        int entryCount = 0;
+        long entryTotalSize = 0;
+        String sdkRootPrefix = sdkRoot.getName() + "/";
+        try (ZipFile zipFile = new ZipFile(sdkArchive)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String relativeName = entry.getName().startsWith(sdkRootPrefix) ? entry.getName().substring(sdkRootPrefix.length()) : entry.getName();
+                if (entrySubset == null || entrySubset.apply(relativeName)) {
+                    entryCount++;
+                    entryTotalSize += Math.max(0, entry.getSize());
+                }
+            }
+        }
+        return new SdkUnpackManifest(sdkArchive.getAbsolutePath(), sdkArchive.length(), sdkArchive.lastModified(),
+                archiveHash.toString(), entryCount, entryTotalSize, entrySubset, sdkRoot.getAbsolutePath());
+    }
+
+    /**
+     * Reads the manifest for an archive, if one exists.
+     * @param sdkArchive the archive
+     * @return the manifest, or null if there is no readable manifest
+     */
+    public static SdkUnpackManifest read(File sdkArchive) {
+        File manifestFile = manifestFileFor(sdkArchive);
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(manifestFile)) {
+            p.load(in);
+            String subsetSpec = p.getProperty(KEY_ENTRY_SUBSET);
+            return new SdkUnpackManifest(p.getProperty(KEY_ARCHIVE_PATH),
+                    Long.parseLong(p.getProperty(KEY_ARCHIVE_LENGTH)),
+                    Long.parseLong(p.getProperty(KEY_ARCHIVE_LAST_MODIFIED)),
+                    p.getProperty(KEY_ARCHIVE_SHA256),
+                    Integer.parseInt(p.getProperty(KEY_ENTRY_COUNT)),
+                    Long.parseLong(p.getProperty(KEY_ENTRY_TOTAL_SIZE)),
+                    subsetSpec == null ? null : SdkEntrySubset.parse(subsetSpec),
+                    p.getProperty(KEY_SDK_ROOT));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether this manifest still describes the given archive, using only
+     * the archive's size and modification time.
+     * @param sdkArchive the archive
+     * @return true if the manifest matches the archive and the SDK root exists
+     */
+    public boolean isCurrent(File sdkArchive) {
+        return archivePath.equals(sdkArchive.getAbsolutePath())
+                && archiveLength == sdkArchive.length()
+                && archiveLastModified == sdkArchive.lastModified()
+                && getSdkRoot().isDirectory();
+    }
+
+    /**
+     * Checks whether the unpack described by this manifest extracted every entry in a subset.
+     * @param wanted the subset; null means the whole archive
+     * @return true if the wanted entries were extracted
+     */
+    public boolean includes(SdkEntrySubset wanted) {
+        return entrySubset == null || entrySubset.covers(wanted);
+    }
+
+    public File getSdkRoot() {
+        return new File(sdkRoot);
+    }
+
+    /**
+     * Writes the manifest next to the archive. The file is written to a temporary
+     * sibling and renamed into place so readers never see a partial manifest.
+     * @throws IOException on I/O failure
+     */
+    public void write() throws IOException {
+        File archive = new File(archivePath);
+        File manifestFile = manifestFileFor(archive);
+        Properties p = new Properties();
+        p.setProperty(KEY_ARCHIVE_PATH, archivePath);
+        p.setProperty(KEY_ARCHIVE_LENGTH, String.valueOf(archiveLength));
+        p.setProperty(KEY_ARCHIVE_LAST_MODIFIED, String.valueOf(archiveLastModified));
+        p.setProperty(KEY_ARCHIVE_SHA256, archiveSha256);
+        p.setProperty(KEY_ENTRY_COUNT, String.valueOf(entryCount));
+        p.setProperty(KEY_ENTRY_TOTAL_SIZE, String.valueOf(entryTotalSize));
+        if (entrySubset != null) {
+            p.setProperty(KEY_ENTRY_SUBSET, entrySubset.toString());
+        }
+        p.setProperty(KEY_SDK_ROOT, sdkRoot);
+        File tempFile = File.createTempFile(manifestFile.getName(), ".tmp", manifestFile.getParentFile());
+        try {
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                p.store(out, "unpacked by gae-testing-support");
+            }
+            java.nio.file.Files.move(tempFile.toPath(), manifestFile.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SdkUnpackManifest{" +
+                "archivePath='" + archivePath + '\'' +
+                ", archiveSha256='" + archiveSha256 + '\'' +
+                ", entryCount=" + entryCount +
+                ", entrySubset=" + entrySubset +
+                ", sdkRoot='" + sdkRoot + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,395 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.mike10004.gaetesting.SystemSdkResolver.DownloadProgressListener;
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferPhase;
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferProgressListener;
+import com.google.common.base.Supplier;
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Downloads a remote file in parallel segments using HTTP range requests. Progress
+ * is persisted to a properties file next to the partial download, so a download
+ * that is interrupted resumes where each segment left off. Bytes are counted as
+ * done only once they have been forced to disk.
+ */
+class SegmentedDownloader {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedDownloader.class);
+
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PERSIST_INTERVAL_BYTES = 1024 * 1024;
+    private static final String PROGRESS_SUFFIX = ".progress";
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+|\\*)$");
+
+    private final Supplier<CloseableHttpClient> httpClientSupplier;
+    private final DownloadProgressListener downloadProgressListener;
+    private final int maxSegments;
+    private final long minSegmentSize;
+
+    public SegmentedDownloader(Supplier<CloseableHttpClient> httpClientSupplier, DownloadProgressListener downloadProgressListener, int maxSegments, long minSegmentSize) {
+        this.httpClientSupplier = checkNotNull(httpClientSupplier);
+        this.downloadProgressListener = checkNotNull(downloadProgressListener);
+        checkArgument(maxSegments > 0, "maxSegments must be positive: %s", maxSegments);
+        checkArgument(minSegmentSize > 0, "minSegmentSize must be positive: %s", minSegmentSize);
+        this.maxSegments = maxSegments;
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    static File progressFileFor(File partFile) {
+        return new File(partFile.getParentFile(), partFile.getName() + PROGRESS_SUFFIX);
+    }
+
+    /**
+     * Downloads a file, resuming a previous partial download if one is present.
+     * @param uri the remote file URL
+     * @param partFile the file to write to
+     * @return true if the file was downloaded, false if the server does not support range requests
+     * @throws IOException on I/O failure; progress made before the failure is persisted
+     */
+    public boolean download(URI uri, File partFile) throws IOException {
+        RemoteFileInfo info = probe(uri);
+        if (info == null) {
+            log.debug("server does not support range requests for {}", uri);
+            return false;
+        }
+        File progressFile = progressFileFor(partFile);
+        DownloadProgress progress = DownloadProgress.load(progressFile);
+        if (progress != null && progress.matches(uri, info) && partFile.length() == info.length) {
+            log.info("resuming download of {} with {} of {} bytes remaining", uri, progress.remaining(), info.length);
+        } else {
+            if (progressFile.exists() && !progressFile.delete()) {
+                throw new IOException("could not delete stale progress file " + progressFile);
+            }
+            progress = DownloadProgress.create(uri, info, segmentCount(info.length));
+            try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+                raf.setLength(info.length);
+            }
+            progress.save(progressFile);
+        }
+        downloadSegments(uri, partFile, info, progress, progressFile);
+        if (!progressFile.delete()) {
+            log.warn("failed to delete {}", progressFile);
+        }
+        return true;
+    }
+
+    int segmentCount(long length) {
+        long bySize = Math.max(1, length / minSegmentSize);
+        return (int) Math.min(maxSegments, bySize);
+    }
+
+    /**
+     * Requests the first byte of the file to learn its length and whether the
+     * server honors range requests.
+     * @return the file info, or null if ranges are not supported
+     */
+    private RemoteFileInfo probe(URI uri) throws IOException {
+        HttpGet request = new HttpGet(uri);
+        request.setHeader(HttpHeaders.RANGE, "bytes=0-0");
+        try (CloseableHttpClient client = httpClientSupplier.get();
+             CloseableHttpResponse response = client.execute(request)) {
+            downloadProgressListener.serverResponded(response);
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                return null;
+            }
+            Matcher m = matchContentRange(response);
+            if (m == null || "*".equals(m.group(3))) {
+                return null;
+            }
+            String validator = headerValue(response, HttpHeaders.ETAG);
+            if (validator == null) {
+                validator = headerValue(response, HttpHeaders.LAST_MODIFIED);
+            }
+            return new RemoteFileInfo(Long.parseLong(m.group(3)), validator, headerValue(response, HttpHeaders.CONTENT_TYPE));
+        }
+    }
+
+    /**
+     * Returns an entity that describes the whole remote file. The segments have
+     * no single entity, so the content of this one cannot be read.
+     */
+    private static HttpEntity describe(RemoteFileInfo info) {
+        BasicHttpEntity entity = new BasicHttpEntity();
+        entity.setContentLength(info.length);
+        entity.setContentType(info.contentType);
+        return entity;
+    }
+
+    private static String headerValue(CloseableHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static Matcher matchContentRange(CloseableHttpResponse response) {
+        String contentRange = headerValue(response, HttpHeaders.CONTENT_RANGE);
+        if (contentRange == null) {
+            return null;
+        }
+        Matcher m = CONTENT_RANGE_PATTERN.matcher(contentRange.trim());
+        return m.matches() ? m : null;
+    }
+
+    private void downloadSegments(URI uri, File partFile, RemoteFileInfo info, DownloadProgress progress, File progressFile) throws IOException {
+        downloadProgressListener.downloadingToTemporaryFile(describe(info), partFile);
+        int numSegments = progress.numSegments();
+        TransferProgressListener transferListener = downloadProgressListener instanceof TransferProgressListener
+                ? (TransferProgressListener) downloadProgressListener : null;
+        long remaining = 0;
+        for (int i = 0; i < numSegments; i++) {
+            remaining += progress.end[i] - progress.start[i] + 1 - progress.done.get(i);
+        }
+        TransferMeter meter = TransferMeter.start(transferListener, TransferPhase.DOWNLOAD, uri.toString(), remaining);
+        ExecutorService executor = Executors.newFixedThreadPool(numSegments, new ThreadFactoryBuilder()
+                .setNameFormat("sdk-download-segment-%d")
+                .setDaemon(true)
+                .build());
+        IOException failure = null;
+        try {
+            List<Future<Void>> futures = new ArrayList<>(numSegments);
+            for (int i = 0; i < numSegments; i++) {
+                futures.add(executor.submit(new SegmentTask(uri, partFile, progress, progressFile, i, meter)));
+            }
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failure = new IOException("interrupted while downloading " + uri, e);
+                    break;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException("failed to download " + uri, cause);
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            progress.save(progressFile);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        meter.finish();
+    }
+
+    private class SegmentTask implements Callable<Void> {
+
+        private final URI uri;
+        private final File partFile;
+        private final DownloadProgress progress;
+        private final File progressFile;
+        private final int segment;
+        private final TransferMeter meter;
+
+        private SegmentTask(URI uri, File partFile, DownloadProgress progress, File progressFile, int segment, TransferMeter meter) {
+            this.uri = uri;
+            this.partFile = partFile;
+            this.progress = progress;
+            this.progressFile = progressFile;
+            this.segment = segment;
+            this.meter = meter;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            long from = progress.start[segment] + progress.done.get(segment);
+            long to = progress.end[segment];
+            if (from > to) {
+                return null;
+            }
+            HttpGet request = new HttpGet(uri);
+            request.setHeader(HttpHeaders.RANGE, "bytes=" + from + "-" + to);
+            if (progress.validator != null) {
+                request.setHeader(HttpHeaders.IF_RANGE, progress.validator);
+            }
+            try (CloseableHttpClient client = httpClientSupplier.get();
+                 CloseableHttpResponse response = client.execute(request)) {
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT) {
+                    throw new IOException("segment " + segment + " response status " + response.getStatusLine());
+                }
+                Matcher m = matchContentRange(response);
+                if (m == null || Long.parseLong(m.group(1)) != from) {
+                    throw new IOException("segment " + segment + " has unexpected content range " + headerValue(response, HttpHeaders.CONTENT_RANGE));
+                }
+                long position = from;
+                long unsaved = 0;
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try (InputStream in = response.getEntity().getContent();
+                     RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+                    raf.seek(position);
+                    try {
+                        int r;
+                        while (position <= to && (r = in.read(buffer, 0, (int) Math.min(buffer.length, to - position + 1))) != -1) {
+                            raf.write(buffer, 0, r);
+                            position += r;
+                            meter.add(r);
+                            unsaved += r;
+                            if (unsaved >= PERSIST_INTERVAL_BYTES) {
+                                commit(raf, unsaved);
+                                progress.save(progressFile);
+                                unsaved = 0;
+                            }
+                        }
+                    } finally {
+                        if (unsaved > 0) {
+                            commit(raf, unsaved);
+                        }
+                    }
+                }
+                if (position != to + 1) {
+                    throw new IOException(String.format("segment %d ended at byte %d; expected %d", segment, position, to + 1));
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Forces written bytes to disk before counting them as done, so that
+         * saved progress never claims bytes that a crash could lose.
+         */
+        private void commit(RandomAccessFile raf, long bytes) throws IOException {
+            raf.getFD().sync();
+            progress.done.addAndGet(segment, bytes);
+        }
+    }
+
+    private static class RemoteFileInfo {
+
+        public final long length;
+        public final String validator;
+        public final String contentType;
+
+        private RemoteFileInfo(long length, String validator, String contentType) {
+            this.length = length;
+            this.validator = validator;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Segment boundaries and the number of bytes completed in each segment.
+     */
+    static class DownloadProgress {
+
+        public final String uri;
+        public final long length;
+        public final String validator;
+        public final long[] start;
+        public final long[] end;
+        public final AtomicLongArray done;
+
+        DownloadProgress(String uri, long length, String validator, long[] start, long[] end, AtomicLongArray done) {
+            this.uri = uri;
+            this.length = length;
+            this.validator = validator;
+            this.start = start;
+            this.end = end;
+            this.done = done;
+        }
+
+        public static DownloadProgress create(URI uri, RemoteFileInfo info, int numSegments) {
+            long segmentSize = (info.length + numSegments - 1) / numSegments;
+            long[] start = new long[numSegments], end = new long[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                start[i] = i * segmentSize;
+                end[i] = Math.min(info.length, start[i] + segmentSize) - 1;
+            }
+            return new DownloadProgress(uri.toString(), info.length, info.validator, start, end, new AtomicLongArray(numSegments));
+        }
+
+        public int numSegments() {
+            return start.length;
+        }
+
+        public long remaining() {
+            long remaining = length;
+            for (int i = 0; i < done.length(); i++) {
+                remaining -= done.get(i);
+            }
+            return remaining;
+        }
+
+        public boolean matches(URI uri, RemoteFileInfo info) {
+            return this.uri.equals(uri.toString()) && length == info.length && Objects.equals(validator, info.validator);
+        }
+
+        public static DownloadProgress load(File progressFile) {
+            if (!progressFile.isFile()) {
+                return null;
+            }
+            Properties p = new Properties();
+            try (InputStream in = new FileInputStream(progressFile)) {
+                p.load(in);
+                int numSegments = Integer.parseInt(p.getProperty("segments"));
+                long[] start = new long[numSegments], end = new long[numSegments];
+                AtomicLongArray done = new AtomicLongArray(numSegments);
+                for (int i = 0; i < numSegments; i++) {
+                    start[i] = Long.parseLong(p.getProperty("segment." + i + ".start"));
+                    end[i] = Long.parseLong(p.getProperty("segment." + i + ".end"));
+                    done.set(i, Long.parseLong(p.getProperty("segment." + i + ".done")));
+                }
+                return new DownloadProgress(p.getProperty("uri"), Long.parseLong(p.getProperty("length")), p.getProperty("validator"), start, end, done);
+            } catch (IOException | RuntimeException e) {
+                log.info("ignoring unreadable progress file {}: {}", progressFile, e.toString());
+                return null;
+            }
+        }
+
+        public synchronized void save(File progressFile) throws IOException {
+            Properties p = new Properties();
+            p.setProperty("uri", uri);
+            p.setProperty("length", String.valueOf(length));
+            if (validator != null) {
+                p.setProperty("validator", validator);
+            }
+            p.setProperty("segments", String.valueOf(start.length));
+            for (int i = 0; i < start.length; i++) {
+                p.setProperty("segment." + i + ".start", String.valueOf(start[i]));
+                p.setProperty("segment." + i + ".end", String.valueOf(end[i]));
+                p.setProperty("segment." + i + ".done", String.valueOf(done.get(i)));
+            }
+            File tempFile = new File(progressFile.getParentFile(), progressFile.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tempFile)) {
+                p.store(out, null);
+            }
+            DownloadingSdkResolver.moveIntoPlace(tempFile, progressFile);
+        }
+    }
+}
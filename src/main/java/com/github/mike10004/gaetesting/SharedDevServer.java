@@ -0,0 +1,167 @@
+package com.github.mike10004.gaetesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Dev server shared by all rules in the JVM that use the same configuration key.
+ * The first lease starts the server and later leases reuse it. When the last
+ * user releases it, a {@link DevServerPool.Resetter} runs, and a server that
+ * cannot be reset is stopped and started again by the next lease.
+ *
+ * <p>Test classes usually run one after another, so the number of users drops
+ * to zero between classes. By default the server then keeps running until the
+ * JVM exits, when the process tree is killed; with an idle timeout it is
+ * stopped once it has had no users for that long.
+ */
+public class SharedDevServer implements DevServerLessor {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedDevServer.class);
+
+    /**
+     * Idle timeout value that keeps an unused server running until the JVM exits.
+     */
+    public static final long KEEP_UNTIL_EXIT = -1;
+
+    private static final Map<String, SharedDevServer> instances = new HashMap<>();
+
+    private static final ScheduledExecutorService idleStopper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "shared-dev-server-idle-stopper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final String key;
+    private final GCloudAsyncRunnerFactory factory;
+    private final DevServerPool.Resetter resetter;
+    private final long idleTimeoutMillis;
+    private GCloudAsyncRunner runner;
+    private int users;
+    private ScheduledFuture<?> pendingStop;
+
+    private SharedDevServer(String key, GCloudAsyncRunnerFactory factory, DevServerPool.Resetter resetter, long idleTimeoutMillis) {
+        this.key = key;
+        this.factory = factory;
+        this.resetter = resetter;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Returns the shared server for a key, creating it if this is the first
+     * request for the key. The other arguments are used only when the server is created.
+     * @param key the configuration key
+     * @param factory the factory of the runner
+     * @param resetter the resetter that runs when the last user releases the server
+     * @param idleTimeout how long an unused server keeps running, or {@link #KEEP_UNTIL_EXIT}
+     * @param unit the unit of the idle timeout
+     * @return the shared server
+     */
+    public static SharedDevServer forKey(String key, GCloudAsyncRunnerFactory factory, DevServerPool.Resetter resetter, long idleTimeout, TimeUnit unit) {
+        checkNotNull(key, "key");
+        checkNotNull(factory, "factory");
+        checkNotNull(resetter, "resetter");
+        checkArgument(idleTimeout >= 0 || idleTimeout == KEEP_UNTIL_EXIT, "invalid idle timeout: %s", idleTimeout);
+        synchronized (instances) {
+            SharedDevServer instance = instances.get(key);
+            if (instance == null) {
+                instance = new SharedDevServer(key, factory, resetter, idleTimeout == KEEP_UNTIL_EXIT ? KEEP_UNTIL_EXIT : unit.toMillis(idleTimeout));
+                instances.put(key, instance);
+            }
+            return instance;
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public synchronized GCloudAsyncRunner lease() throws IOException {
+        if (pendingStop != null) {
+            pendingStop.cancel(false);
+            pendingStop = null;
+        }
+        if (runner == null || !runner.isRunning()) {
+            GCloudAsyncRunner created = factory.createRunner();
+            log.info("starting shared dev server {}", key);
+            created.execute();
+            runner = created;
+        }
+        users++;
+        return runner;
+    }
+
+    /**
+     * Releases the server. The resetter runs only when the last user releases
+     * it, so that a user finishing does not clear the state of others that
+     * still hold the server.
+     * @param released the runner returned by {@link #lease()}
+     */
+    @Override
+    public synchronized void release(GCloudAsyncRunner released) {
+        checkState(users > 0, "not leased");
+        users--;
+        if (released != runner || users > 0) {
+            return;
+        }
+        boolean reusable;
+        try {
+            reusable = runner.isRunning() && resetter.reset(runner);
+        } catch (IOException | RuntimeException e) {
+            log.warn("failed to reset shared dev server {}; it will be restarted", key, e);
+            reusable = false;
+        }
+        if (!reusable) {
+            stopRunner();
+            return;
+        }
+        if (idleTimeoutMillis != KEEP_UNTIL_EXIT) {
+            pendingStop = idleStopper.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    stopIfIdle();
+                }
+            }, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopIfIdle() {
+        if (users == 0) {
+            log.info("stopping idle shared dev server {}", key);
+            stopRunner();
+        }
+        pendingStop = null;
+    }
+
+    private void stopRunner() {
+        if (runner != null) {
+            StopResult result = runner.stop(GCloudServerStopper.DEFAULT_STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            log.debug("shared dev server {} stop: {}", key, result);
+            runner = null;
+        }
+    }
+
+    /**
+     * Returns the number of current users.
+     * @return the count
+     */
+    public synchronized int getUserCount() {
+        return users;
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Disk cache of staging directories that persists across builds. An entry is
+ * addressed by the SHA-256 hash of the application's content, the App Engine
+ * SDK version and the Java version, so repeat builds of an unchanged
+ * application stage into a directory whose output is already
+ * {@link StagingFingerprint up to date}. Entries are evicted least recently
+ * used first when the cache exceeds its size budget.
+ *
+ * <p>Staging writes generated files into the application directory; those
+ * files are left out of the content hash so that the key is the same before
+ * and after staging. File hashes are remembered for the life of the JVM and
+ * reused while a file's size and modification time are unchanged, so repeat
+ * lookups only list the application directory. The size of an entry is the
+ * one recorded in its fingerprint after staging.
+ */
+public class StagingCache {
+
+    public static final String DEFAULT_DIRECTORY_NAME = "gae-testing-support-staging-cache";
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private static final String APP_YAML_GENERATED_MARKER = ".appyamlgenerated";
+
+    private static final ConcurrentMap<File, FileHash> fileHashes = new ConcurrentHashMap<>();
+
+    private final SdkCacheStore store;
+
+    public StagingCache(File rootDirectory) {
+        this(rootDirectory, DEFAULT_MAX_BYTES);
+    }
+
+    public StagingCache(File rootDirectory, long maxBytes) {
+        this(rootDirectory, maxBytes, SdkCacheStore.DEFAULT_EVICTION_GRACE_MILLIS);
+    }
+
+    StagingCache(File rootDirectory, long maxBytes, long evictionGraceMillis) {
+        this.store = new SdkCacheStore(rootDirectory, maxBytes, evictionGraceMillis);
+    }
+
+    /**
+     * Returns a cache in the system temporary directory.
+     * @return the cache
+     */
+    public static StagingCache inTempDirectory() {
+        return new StagingCache(new File(FileUtils.getTempDirectory(), DEFAULT_DIRECTORY_NAME));
+    }
+
+    public File getRootDirectory() {
+        return store.getRootDirectory();
+    }
+
+    /**
+     * Returns the staging directory for an application, recording the access
+     * and evicting other entries if the cache is over budget. The directory
+     * is not created; staging creates it.
+     * @param applicationDirectory the exploded application
+     * @param sdkVersion the App Engine SDK version
+     * @param javaVersion the Java version
+     * @return the staging directory
+     * @throws IOException on I/O failure
+     */
+    public File stagingDirectoryFor(File applicationDirectory, String sdkVersion, String javaVersion) throws IOException {
+        checkNotNull(sdkVersion, "sdkVersion");
+        checkNotNull(javaVersion, "javaVersion");
+        String key = Hashing.sha256().newHasher()
+                .putString(contentHash(applicationDirectory), StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(sdkVersion, StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(javaVersion, StandardCharsets.UTF_8)
+                .hash().toString();
+        File entryDir = store.entryDirectory(key);
+        // the size recorded now is that of the previous staging; entries are sized approximately
+        StagingFingerprint fingerprint = StagingFingerprint.read(StagingFingerprint.fileIn(entryDir));
+        long size = fingerprint == null ? 0 : fingerprint.getStagedBytes();
+        store.getRootDirectory().mkdirs();
+        store.recordAccess(key, applicationDirectory.getName() + " (SDK " + sdkVersion + ", Java " + javaVersion + ")", size);
+        return entryDir;
+    }
+
+    /**
+     * Hashes the paths and contents of the files of an application, leaving out files that staging writes.
+     * A file is rehashed only if its size or modification time differs from when it was last hashed.
+     */
+    static String contentHash(File applicationDirectory) throws IOException {
+        final Path root = applicationDirectory.toPath();
+        final boolean stagedBefore = new File(applicationDirectory, APP_YAML_GENERATED_MARKER).isFile();
+        final Map<String, FileHash> files = new TreeMap<>();
+        java.nio.file.Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String relative = root.relativize(dir).toString().replace(File.separatorChar, '/');
+                return "WEB-INF/appengine-generated".equals(relative) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+                if (attrs.isRegularFile() && !isStagingOutput(relative, stagedBefore)) {
+                    files.put(relative, new FileHash(file.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (Map.Entry<String, FileHash> entry : files.entrySet()) {
+            hasher.putString(entry.getKey(), StandardCharsets.UTF_8).putByte((byte) 0);
+            hasher.putBytes(hash(entry.getValue()));
+        }
+        return hasher.hash().toString();
+    }
+
+    private static byte[] hash(FileHash current) throws IOException {
+        File file = current.file.getAbsoluteFile();
+        FileHash previous = fileHashes.get(file);
+        if (previous != null && previous.size == current.size && previous.lastModified == current.lastModified) {
+            return previous.sha256;
+        }
+        current.sha256 = Files.asByteSource(file).hash(Hashing.sha256()).asBytes();
+        fileHashes.put(file, current);
+        return current.sha256;
+    }
+
+    private static boolean isStagingOutput(String relativePath, boolean stagedBefore) {
+        switch (relativePath) {
+            case APP_YAML_GENERATED_MARKER:
+            case "WEB-INF/datastore-indexes.xml":
+            case "WEB-INF/quickstart-web.xml":
+                return true;
+            default:
+                return stagedBefore && relativePath.indexOf('/') < 0 && relativePath.endsWith(".yaml");
+        }
+    }
+
+    private static final class FileHash {
+
+        private final File file;
+        private final long size;
+        private final long lastModified;
+        private byte[] sha256;
+
+        private FileHash(File file, long size, long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Record of the application directory and staging flags that produced a
+ * staging output. Staging rewrites files in the application directory, so
+ * the fingerprint is taken after staging, and a later staging run whose
+ * application directory and flags still match can reuse the output.
+ *
+ * <p>Each file is recorded with its size, modification time and SHA-256 hash.
+ * Matching compares sizes and times first and hashes only the files whose
+ * time differs, so a rebuild that rewrites identical files still matches.
+ * The size of the staging output is recorded too, so that a cache of staging
+ * directories need not measure it.
+ */
+class StagingFingerprint {
+
+    static final String FILENAME = ".staging-fingerprint.properties";
+
+    private static final String KEY_FLAGS = "flags";
+    private static final String KEY_STAGED_BYTES = "stagedBytes";
+    private static final String FILE_KEY_PREFIX = "file:";
+
+    private final String flags;
+    private final Map<String, FileRecord> files;
+    private final long stagedBytes;
+
+    private StagingFingerprint(String flags, Map<String, FileRecord> files, long stagedBytes) {
+        this.flags = checkNotNull(flags);
+        this.files = checkNotNull(files);
+        this.stagedBytes = stagedBytes;
+    }
+
+    /**
+     * Returns the file where the fingerprint of a staging output is kept.
+     * @param stagingDir the staging output directory
+     * @return the fingerprint file
+     */
+    public static File fileIn(File stagingDir) {
+        return new File(stagingDir, FILENAME);
+    }
+
+    /**
+     * Takes the fingerprint of an application directory, hashing every file.
+     * @param appDir the application directory
+     * @param stagingFlags the arguments and settings that affect staging output
+     * @param stagedBytes the size of the staging output
+     * @return the fingerprint
+     * @throws IOException on I/O failure
+     */
+    public static StagingFingerprint compute(File appDir, List<String> stagingFlags, long stagedBytes) throws IOException {
+        final Map<String, FileRecord> files = new TreeMap<>();
+        for (Map.Entry<String, File> entry : listFiles(appDir).entrySet()) {
+            File file = entry.getValue();
+            files.put(entry.getKey(), new FileRecord(file.length(), file.lastModified(), hash(file)));
+        }
+        return new StagingFingerprint(joinFlags(stagingFlags), files, stagedBytes);
+    }
+
+    private static String joinFlags(List<String> stagingFlags) {
+        return Joiner.on('\n').join(stagingFlags);
+    }
+
+    private static String hash(File file) throws IOException {
+        return Files.asByteSource(file).hash(Hashing.sha256()).toString();
+    }
+
+    private static Map<String, File> listFiles(File appDir) throws IOException {
+        final Path root = appDir.toPath();
+        final Map<String, File> files = new TreeMap<>();
+        java.nio.file.Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    files.put(root.relativize(file).toString().replace(File.separatorChar, '/'), file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Returns the size of the staging output when the fingerprint was taken.
+     * @return the size in bytes
+     */
+    public long getStagedBytes() {
+        return stagedBytes;
+    }
+
+    /**
+     * Checks whether an application directory and staging flags still match this fingerprint.
+     * @param appDir the application directory
+     * @param stagingFlags the arguments and settings that affect staging output
+     * @return true if they match
+     * @throws IOException on I/O failure
+     */
+    public boolean matches(File appDir, List<String> stagingFlags) throws IOException {
+        if (!flags.equals(joinFlags(stagingFlags))) {
+            return false;
+        }
+        Map<String, File> current = listFiles(appDir);
+        if (!current.keySet().equals(files.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, File> entry : current.entrySet()) {
+            FileRecord record = files.get(entry.getKey());
+            File file = entry.getValue();
+            if (file.length() != record.size) {
+                return false;
+            }
+            if (file.lastModified() != record.lastModified && !hash(file).equals(record.sha256)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a fingerprint.
+     * @param file the fingerprint file
+     * @return the fingerprint, or null if the file does not exist or is malformed
+     * @throws IOException on I/O failure
+     */
+    public static StagingFingerprint read(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            p.load(in);
+        }
+        String flags = p.getProperty(KEY_FLAGS);
+        if (flags == null) {
+            return null;
+        }
+        long stagedBytes;
+        try {
+            stagedBytes = Long.parseLong(p.getProperty(KEY_STAGED_BYTES, "0"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        Map<String, FileRecord> files = new TreeMap<>();
+        for (String name : p.stringPropertyNames()) {
+            if (name.startsWith(FILE_KEY_PREFIX)) {
+                String[] parts = p.getProperty(name).split(",");
+                if (parts.length != 3) {
+                    return null;
+                }
+                try {
+                    files.put(name.substring(FILE_KEY_PREFIX.length()), new FileRecord(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        }
+        return new StagingFingerprint(flags, files, stagedBytes);
+    }
+
+    public void write(File file) throws IOException {
+        Properties p = new Properties();
+        p.setProperty(KEY_FLAGS, flags);
+        p.setProperty(KEY_STAGED_BYTES, String.valueOf(stagedBytes));
+        for (Map.Entry<String, FileRecord> entry : files.entrySet()) {
+            FileRecord record = entry.getValue();
+            p.setProperty(FILE_KEY_PREFIX + entry.getKey(), record.size + "," + record.lastModified + "," + record.sha256);
+        }
+        File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tempFile)) {
+            p.store(out, "staging fingerprint");
+        }
+        DownloadingSdkResolver.moveIntoPlace(tempFile, file);
+    }
+
+    private static final class FileRecord {
+
+        private final long size;
+        private final long lastModified;
+        private final String sha256;
+
+        private FileRecord(long size, long lastModified, String sha256) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+        }
+    }
+}
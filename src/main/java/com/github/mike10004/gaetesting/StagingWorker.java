@@ -0,0 +1,78 @@
+package com.github.mike10004.gaetesting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Main class of the worker processes of a {@link StagingWorkerPool}. A worker
+ * runs the main method of the class named by its first argument, normally
+ * {@code AppCfg}, once for each request it reads from standard input, and
+ * exits when standard input ends. The worker's standard output carries the
+ * protocol, so anything the staged tool prints is sent to standard error.
+ *
+ * <p>A request is the number of arguments followed by the arguments, as
+ * written by {@link DataOutputStream#writeInt(int)} and
+ * {@link DataOutputStream#writeUTF(String)}. The response is a boolean that
+ * is true on success, followed by an error description that is empty on
+ * success. Before the first request, the worker writes
+ * {@link #READY} once its tool class is loaded.
+ */
+public final class StagingWorker {
+
+    static final String READY = "ready";
+
+    private StagingWorker() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: StagingWorker MAIN_CLASS");
+            System.exit(2);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(new PrintStream(new FileOutputStream(FileDescriptor.err), true));
+        Method main;
+        try {
+            main = Class.forName(args[0]).getMethod("main", String[].class);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            System.err.println("cannot load " + args[0] + ": " + e);
+            System.exit(2);
+            return;
+        }
+        out.writeUTF(READY);
+        out.flush();
+        while (true) {
+            String[] arguments;
+            try {
+                arguments = new String[in.readInt()];
+            } catch (EOFException e) {
+                return;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = in.readUTF();
+            }
+            String error = "";
+            try {
+                main.invoke(null, (Object) arguments);
+            } catch (InvocationTargetException e) {
+                e.getCause().printStackTrace();
+                error = e.getCause().toString();
+            } catch (IllegalAccessException | RuntimeException e) {
+                e.printStackTrace();
+                error = e.toString();
+            }
+            out.writeBoolean(error.isEmpty());
+            out.writeUTF(error);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.appengine.tools.admin.AppCfg;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Pool of worker JVMs that run {@code AppCfg} staging. Each worker is started
+ * with the {@code appengine.sdk.root} system property of one SDK, so runners
+ * that stage with different SDKs do not interfere through the property of
+ * this JVM, and several applications can stage at once on separate cores.
+ *
+ * <p>Workers are started on demand, up to a maximum per SDK, and kept running
+ * between requests so that later staging finds the tool classes loaded. Idle
+ * workers stay up until the pool is closed or the JVM exits. A worker that
+ * dies is replaced on the next request.
+ */
+public class StagingWorkerPool implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(StagingWorkerPool.class);
+
+    public static final int DEFAULT_MAX_WORKERS_PER_SDK = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of lines of a dead worker's error output included in the exception.
+     */
+    static final int FAILURE_OUTPUT_LINES = 50;
+    private static final long OUTPUT_DRAIN_TIMEOUT_MILLIS = 1000;
+
+    private static final StagingWorkerPool defaultInstance = new StagingWorkerPool(DEFAULT_MAX_WORKERS_PER_SDK);
+
+    private final int maxWorkersPerSdk;
+    private final String toolClassName;
+    private final Object lock = new Object();
+    private final Map<String, Deque<Worker>> idleWorkers = new HashMap<>();
+    private final Map<String, Integer> workerCounts = new HashMap<>();
+    private final Set<Worker> workers = new HashSet<>();
+    private boolean closed;
+
+    public StagingWorkerPool(int maxWorkersPerSdk) {
+        this(maxWorkersPerSdk, AppCfg.class.getName());
+    }
+
+    StagingWorkerPool(int maxWorkersPerSdk, String toolClassName) {
+        checkArgument(maxWorkersPerSdk > 0, "maxWorkersPerSdk must be positive: %s", maxWorkersPerSdk);
+        this.maxWorkersPerSdk = maxWorkersPerSdk;
+        this.toolClassName = checkNotNull(toolClassName, "toolClassName");
+    }
+
+    /**
+     * Returns the pool shared by all runners in this JVM, whose workers stay
+     * warm for the rest of the build.
+     * @return the shared pool
+     */
+    public static StagingWorkerPool getDefault() {
+        return defaultInstance;
+    }
+
+    /**
+     * Runs {@code AppCfg} with the given arguments in a worker for an SDK,
+     * waiting for a worker to become free if the SDK already has the maximum
+     * number of workers.
+     * @param sdkRoot the root directory of the App Engine SDK
+     * @param arguments the {@code AppCfg} arguments
+     * @throws GCloudExecutionException if staging failed or the worker died
+     * @throws IOException if a worker could not be started or communicated with
+     */
+    public void stage(File sdkRoot, List<String> arguments) throws IOException {
+        String key = sdkRoot.getCanonicalPath();
+        Worker worker = checkOut(key);
+        boolean reusable = false;
+        String error;
+        try {
+            error = worker.run(arguments);
+            reusable = true;
+        } finally {
+            checkIn(worker, reusable);
+        }
+        if (!error.isEmpty()) {
+            throw new GCloudExecutionException("staging failed in worker " + worker + ": " + error);
+        }
+    }
+
+    /**
+     * Returns the number of running workers for an SDK, busy or idle.
+     * @param sdkRoot the root directory of the SDK
+     * @return the count
+     * @throws IOException if the path could not be made canonical
+     */
+    public int getWorkerCount(File sdkRoot) throws IOException {
+        synchronized (lock) {
+            Integer count = workerCounts.get(sdkRoot.getCanonicalPath());
+            return count == null ? 0 : count;
+        }
+    }
+
+    private Worker checkOut(String sdkRoot) throws IOException {
+        synchronized (lock) {
+            while (true) {
+                checkState(!closed, "pool is closed");
+                Deque<Worker> idle = idleWorkers.get(sdkRoot);
+                Worker worker = idle == null ? null : idle.pollFirst();
+                if (worker != null) {
+                    if (!ProcessTrees.hasExited(worker.process)) {
+                        return worker;
+                    }
+                    discard(worker);
+                    continue;
+                }
+                Integer count = workerCounts.get(sdkRoot);
+                if (count == null || count < maxWorkersPerSdk) {
+                    workerCounts.put(sdkRoot, count == null ? 1 : count + 1);
+                    break;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for a staging worker");
+                }
+            }
+        }
+        Worker worker = null;
+        try {
+            worker = startWorker(sdkRoot);
+            return worker;
+        } finally {
+            if (worker == null) {
+                synchronized (lock) {
+                    decrementCount(sdkRoot);
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    private void checkIn(Worker worker, boolean reusable) {
+        synchronized (lock) {
+            if (reusable && !closed) {
+                Deque<Worker> idle = idleWorkers.get(worker.sdkRoot);
+                if (idle == null) {
+                    idle = new ArrayDeque<>();
+                    idleWorkers.put(worker.sdkRoot, idle);
+                }
+                idle.addFirst(worker);
+            } else {
+                discard(worker);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stops a worker and forgets it. Must hold the lock.
+     */
+    private void discard(Worker worker) {
+        if (workers.remove(worker)) {
+            decrementCount(worker.sdkRoot);
+            worker.destroy();
+        }
+    }
+
+    private void decrementCount(String sdkRoot) {
+        Integer count = workerCounts.get(sdkRoot);
+        if (count == null || count <= 1) {
+            workerCounts.remove(sdkRoot);
+        } else {
+            workerCounts.put(sdkRoot, count - 1);
+        }
+    }
+
+    private Worker startWorker(String sdkRoot) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Dappengine.sdk.root=" + sdkRoot,
+                "-cp", System.getProperty("java.class.path"),
+                StagingWorker.class.getName(),
+                toolClassName));
+        Process process = new ProcessBuilder(command).start();
+        ProcessTrees.killOnExit(process);
+        Worker worker = new Worker(sdkRoot, process);
+        synchronized (lock) {
+            workers.add(worker);
+        }
+        log.debug("started staging worker {} for {}", worker, sdkRoot);
+        try {
+            worker.awaitReady();
+        } catch (IOException | RuntimeException e) {
+            synchronized (lock) {
+                if (workers.remove(worker)) {
+                    worker.destroy();
+                }
+            }
+            throw e;
+        }
+        return worker;
+    }
+
+    /**
+     * Stops all workers. Requests in progress fail.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Worker worker : workers) {
+                worker.destroy();
+            }
+            workers.clear();
+            idleWorkers.clear();
+            workerCounts.clear();
+            lock.notifyAll();
+        }
+    }
+
+    private static final class Worker {
+
+        private final String sdkRoot;
+        private final Process process;
+        private final DataOutputStream requests;
+        private final DataInputStream responses;
+        private final OutputHistory errorOutput = new OutputHistory(FAILURE_OUTPUT_LINES);
+        private final CountDownLatch errorOutputEnded = new CountDownLatch(1);
+
+        private Worker(String sdkRoot, Process process) {
+            this.sdkRoot = sdkRoot;
+            this.process = process;
+            this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            this.responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            ProcessOutputPump.getDefault().register(process, process.getErrorStream(), Charset.defaultCharset(), null, new ProcessOutputPump.LineConsumer() {
+                @Override
+                public void consume(String line) {
+                    errorOutput.add(line);
+                    log.debug("[staging worker] {}", line);
+                }
+
+                @Override
+                public void ended() {
+                    errorOutputEnded.countDown();
+                }
+            });
+        }
+
+        private void awaitReady() throws IOException {
+            String greeting;
+            try {
+                greeting = responses.readUTF();
+            } catch (IOException e) {
+                throw died(e);
+            }
+            if (!StagingWorker.READY.equals(greeting)) {
+                throw new IOException("unexpected greeting from staging worker: " + greeting);
+            }
+        }
+
+        /**
+         * Runs one request.
+         * @return the error description, empty on success
+         */
+        private String run(List<String> arguments) throws IOException {
+            try {
+                requests.writeInt(arguments.size());
+                for (String argument : arguments) {
+                    requests.writeUTF(argument);
+                }
+                requests.flush();
+                boolean succeeded = responses.readBoolean();
+                String error = responses.readUTF();
+                return succeeded ? "" : error;
+            } catch (IOException e) {
+                throw died(e);
+            }
+        }
+
+        private GCloudExecutionException died(IOException cause) {
+            try {
+                errorOutputEnded.await(OUTPUT_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String status = ProcessTrees.hasExited(process) ? "exited with code " + process.exitValue() : "stopped responding";
+            StringBuilder message = new StringBuilder("staging worker " + this + " " + status + "; last output:");
+            for (String line : errorOutput.tail(FAILURE_OUTPUT_LINES)) {
+                message.append(System.lineSeparator()).append(line);
+            }
+            return new GCloudExecutionException(message.toString(), cause);
+        }
+
+        private void destroy() {
+            ProcessTrees.cancelKillOnExit(process);
+            try {
+                requests.close();
+            } catch (IOException ignore) {
+            }
+            process.destroy();
+        }
+
+        @Override
+        public String toString() {
+            Long pid = ProcessTrees.pid(process);
+            return "pid " + (pid == null ? "?" : pid);
+        }
+    }
+}
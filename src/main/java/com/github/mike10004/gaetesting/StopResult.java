@@ -0,0 +1,62 @@
+package com.github.mike10004.gaetesting;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Result of stopping a dev server.
+ * @see GCloudServerStopper#stop(long, TimeUnit)
+ */
+public class StopResult {
+
+    public enum Outcome {
+        /**
+         * The server was not running.
+         */
+        NOT_RUNNING,
+        /**
+         * The server stopped after being asked to quit.
+         */
+        GRACEFUL,
+        /**
+         * The server's process tree exited after SIGTERM.
+         */
+        TERMINATED,
+        /**
+         * The server's process exited after its process tree was sent SIGKILL.
+         */
+        KILLED,
+        /**
+         * The server's process was still running after its process tree was sent SIGKILL.
+         */
+        SURVIVED_KILL,
+        /**
+         * The server did not stop by the deadline and no process was available
+         * to signal, either because the process is unknown or because it exited
+         * while its children still held the server's ports.
+         */
+        TIMED_OUT
+    }
+
+    private final Outcome outcome;
+    private final long elapsedNanos;
+
+    public StopResult(Outcome outcome, long elapsedNanos) {
+        this.outcome = checkNotNull(outcome, "outcome");
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "StopResult{" + outcome + " in " + getElapsed(TimeUnit.MILLISECONDS) + "ms}";
+    }
+}
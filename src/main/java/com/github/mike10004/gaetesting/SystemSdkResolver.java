@@ -1,53 +1,358 @@
 package com.github.mike10004.gaetesting;
 
 import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.util.Enumeration;
+import java.util.Collection;
 import java.util.Objects;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.google.common.base.Preconditions.checkState;
 
 public abstract class SystemSdkResolver extends AppEngineSdkResolver {
+    private static final Logger log = LoggerFactory.getLogger(SystemSdkResolver.class);
+
+    private static final String IMPORT_RECORD_SUFFIX = ".import.properties";
     private static final String SDK_GROUP_ID = "com.google.appengine";
     private static final String SDK_ARTIFACT_ID = "appengine-java-sdk";
     private static final String SDK_EXTENSION = "zip";
     public static final String OPTIMAL_VERSION = "1.9.44";
 
+    /**
+     * The SDK entries that staging reads: the tools API jar, the libraries that
+     * staging copies into the application, the JSP compiler, the logging
+     * configuration, and the schemas used to validate configuration files. A path
+     * ending in {@code /} names a subtree and a path ending in {@code /*} names
+     * the files directly in a directory.
+     */
+    public static final ImmutableList<String> STAGING_ENTRIES = ImmutableList.of(
+            "config/",
+            "docs/*",
+            "lib/appengine-tools-api.jar",
+            "lib/impl/appengine-api.jar",
+            "lib/shared/",
+            "lib/tools/jsp/",
+            "lib/user/");
+
     protected final String version;
+    private int unpackParallelism = SdkArchiveExtractor.defaultParallelism();
+    private long cacheLockTimeoutMillis = CacheDirectoryLock.DEFAULT_TIMEOUT_MILLIS;
+    private long staleCacheLockThresholdMillis = CacheDirectoryLock.DEFAULT_STALE_THRESHOLD_MILLIS;
+    private long cacheMaxBytes = SdkCacheStore.DEFAULT_MAX_BYTES;
+    private final ConcurrentMap<File, HashCode> knownArchiveHashes = new ConcurrentHashMap<>();
+    private SdkEntrySubset extractedEntries;
+    private ArchiveImportStrategy archiveImportStrategy = ArchiveImportStrategy.HARD_LINK;
+    private TransferProgressListener transferProgressListener;
 
     protected SystemSdkResolver(String version) {
         this.version = checkNotNull(version, "version");
     }
 
     /**
-     * Resolve the App Engine SDK, possibly downloading it.
+     * Resolve the App Engine SDK, possibly downloading it. Archives and unpacked
+     * SDKs are kept in an {@link SdkCacheStore} under the cache dir, keyed by the
+     * SHA-256 hash of the archive.
      * @param cacheDir the cache dir
      * @return unpacked SDK directory
      * @throws IOException on I/O failures
      */
     @Override
     public File resolve(File cacheDir) throws IOException {
-        File sdkArchive = new File(cacheDir, formatFilename(version));
-        if (!sdkArchive.isFile()) {
-            URI artifactUrl = buildArtifactUrl(version, getLocalMavenRepoPath());
-            sdkArchive = resolveSdkArchive(artifactUrl, cacheDir);
+        SdkCacheStore store = createCacheStore(cacheDir);
+        String archiveFilename = formatFilename(version);
+        String archiveHash = getExpectedArchiveSha256();
+        if (archiveHash == null) {
+            archiveHash = store.lookUpVersion(version);
+            if (archiveHash != null && !new File(store.entryDirectory(archiveHash), archiveFilename).isFile()) {
+                archiveHash = null; // evicted; the source may have changed, so hash it again
+            }
+            if (archiveHash == null) {
+                archiveHash = importIntoStore(store, cacheDir);
+            }
         }
-        File unpackedSdkDir = unpackSdk(sdkArchive);
+        File sdkArchive = new File(store.entryDirectory(archiveHash), archiveFilename);
+        File unpackedSdkDir = resolveInStore(sdkArchive, store.entryLockFile(archiveHash), cacheDir);
+        SdkUnpackManifest manifest = SdkUnpackManifest.read(sdkArchive);
+        long entrySize = sdkArchive.length() + (manifest == null ? 0 : manifest.entryTotalSize);
+        store.recordAccess(archiveHash, version, entrySize);
         return unpackedSdkDir;
     }
 
+    @SuppressWarnings("try")
+    private File resolveInStore(File sdkArchive, File lockFile, File cacheDir) throws IOException {
+        if (sdkArchive.isFile()) {
+            File previouslyUnpacked = checkUnpackManifest(sdkArchive);
+            if (previouslyUnpacked != null) {
+                return previouslyUnpacked;
+            }
+        }
+        // only one process downloads and unpacks; the others wait and then take the fast path
+        try (CacheDirectoryLock ignore = acquireCacheLock(lockFile)) {
+            if (sdkArchive.isFile()) {
+                File previouslyUnpacked = checkUnpackManifest(sdkArchive);
+                if (previouslyUnpacked != null) {
+                    return previouslyUnpacked;
+                }
+            } else {
+                File entryDir = sdkArchive.getParentFile();
+                if (!entryDir.isDirectory() && !entryDir.mkdirs() && !entryDir.isDirectory()) {
+                    throw new IOException("could not create directory " + entryDir);
+                }
+                File resolved = resolveSdkArchive(locateArchive(cacheDir), entryDir);
+                if (!resolved.getCanonicalFile().equals(sdkArchive.getCanonicalFile())) {
+                    throw new IOException(String.format("files must be same: %s != %s", sdkArchive, resolved));
+                }
+            }
+            SdkEntrySubset unpackedEntries = extractedEntries;
+            SdkUnpackManifest previousUnpack = SdkUnpackManifest.read(sdkArchive);
+            if (unpackedEntries != null && previousUnpack != null && previousUnpack.entrySubset != null
+                    && previousUnpack.isCurrent(sdkArchive)) {
+                unpackedEntries = unpackedEntries.union(previousUnpack.entrySubset);
+            }
+            File unpackedSdkDir = unpackSdk(sdkArchive, createArchiveExtractor());
+            HashCode archiveHash = lookUpArchiveHash(sdkArchive);
+            if (archiveHash == null) {
+                archiveHash = hashArchive(sdkArchive);
+            }
+            SdkUnpackManifest.describe(sdkArchive, archiveHash, unpackedSdkDir, unpackedEntries).write();
+            return unpackedSdkDir;
+        }
+    }
+
+    /**
+     * Obtains an archive whose hash is not known in advance, hashes it, and moves
+     * it into its entry in the store. A local archive is not hashed if its hash
+     * can be {@link #lookUpLocalArchiveHash(File, File) looked up}.
+     * @return the hash of the archive
+     */
+    @SuppressWarnings("try")
+    private String importIntoStore(SdkCacheStore store, File cacheDir) throws IOException {
+        File incomingDir = store.incomingDirectory();
+        String archiveFilename = formatFilename(version);
+        try (CacheDirectoryLock ignore = acquireCacheLock(new File(incomingDir, archiveFilename + ".lock"))) {
+            String archiveHash = store.lookUpVersion(version);
+            if (archiveHash != null && new File(store.entryDirectory(archiveHash), archiveFilename).isFile()) {
+                return archiveHash; // imported by another process while we waited
+            }
+            URI archiveUri = locateArchive(cacheDir);
+            File incomingArchive = resolveSdkArchive(archiveUri, incomingDir);
+            File localSource = "file".equals(archiveUri.getScheme()) ? new File(archiveUri) : null;
+            File importRecord = new File(incomingDir, archiveFilename + IMPORT_RECORD_SUFFIX);
+            HashCode hash = localSource == null ? null : lookUpLocalArchiveHash(localSource, importRecord);
+            if (hash == null) {
+                hash = lookUpArchiveHash(incomingArchive);
+                if (hash == null) {
+                    hash = hashArchive(incomingArchive);
+                }
+                if (localSource != null) {
+                    writeImportRecord(importRecord, localSource, hash);
+                }
+            }
+            archiveHash = hash.toString();
+            File entryDir = store.entryDirectory(archiveHash);
+            if (!entryDir.isDirectory() && !entryDir.mkdirs() && !entryDir.isDirectory()) {
+                throw new IOException("could not create directory " + entryDir);
+            }
+            File sdkArchive = new File(entryDir, archiveFilename);
+            try (CacheDirectoryLock ignoreEntry = acquireCacheLock(store.entryLockFile(archiveHash))) {
+                if (sdkArchive.isFile()) {
+                    if (!incomingArchive.delete()) {
+                        log.debug("failed to delete {}", incomingArchive);
+                    }
+                } else {
+                    DownloadingSdkResolver.moveIntoPlace(incomingArchive, sdkArchive);
+                    rememberArchiveHash(sdkArchive, hash);
+                }
+            }
+            store.recordAccess(archiveHash, version, sdkArchive.length());
+            return archiveHash;
+        }
+    }
+
+    private CacheDirectoryLock acquireCacheLock(File lockFile) throws IOException {
+        return CacheDirectoryLock.acquire(lockFile, cacheLockTimeoutMillis, TimeUnit.MILLISECONDS, staleCacheLockThresholdMillis);
+    }
+
+    /**
+     * Returns the location of the archive to import. An archive left directly in
+     * the cache dir by earlier versions of this library is preferred over the
+     * local Maven repository and the remote repository.
+     * @param cacheDir the cache dir
+     * @return the archive URI
+     */
+    protected URI locateArchive(File cacheDir) {
+        File legacyArchive = new File(cacheDir, formatFilename(version));
+        if (legacyArchive.isFile()) {
+            return legacyArchive.toURI();
+        }
+        return buildArtifactUrl(version, getLocalMavenRepoPath());
+    }
+
+    /**
+     * Returns the SHA-256 hash that the archive of this resolver's version is
+     * known to have, if any. When the hash is known, the cache entry can be
+     * located without obtaining or hashing the archive.
+     * @return the lowercase hex hash, or null if it is not known in advance
+     */
+    protected String getExpectedArchiveSha256() {
+        return null;
+    }
+
+    /**
+     * Sets the disk budget of the SDK cache. When the cache grows beyond the budget,
+     * least recently used SDK versions are evicted.
+     * @param maxBytes the budget in bytes
+     */
+    public void setCacheMaxBytes(long maxBytes) {
+        checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+        this.cacheMaxBytes = maxBytes;
+    }
+
+    protected SdkCacheStore createCacheStore(File cacheDir) {
+        return new SdkCacheStore(new File(cacheDir, SdkCacheStore.DEFAULT_DIRECTORY_NAME), cacheMaxBytes);
+    }
+
+    /**
+     * Sets how long to wait for another thread or process that is downloading or
+     * unpacking the SDK into the same cache directory.
+     * @param timeout the timeout
+     * @param unit the unit of the timeout
+     */
+    public void setCacheLockTimeout(long timeout, TimeUnit unit) {
+        checkArgument(timeout >= 0, "timeout must be nonnegative: %s", timeout);
+        this.cacheLockTimeoutMillis = unit.toMillis(timeout);
+    }
+
+    /**
+     * Sets the age after which a waiter warns that the holder of a cache lock,
+     * which has stopped touching the lock file, may be hung. The lock is not
+     * broken, because its holder may still be alive.
+     * @param threshold the threshold
+     * @param unit the unit of the threshold
+     */
+    public void setStaleCacheLockThreshold(long threshold, TimeUnit unit) {
+        checkArgument(threshold > 0, "threshold must be positive: %s", threshold);
+        this.staleCacheLockThresholdMillis = unit.toMillis(threshold);
+    }
+
+    /**
+     * Returns the SHA-256 hash of an archive if it is already known, for example
+     * because it was computed while the archive was downloaded.
+     * @param sdkArchive the archive
+     * @return the hash, or null if it is not known
+     */
+    protected HashCode lookUpArchiveHash(File sdkArchive) {
+        return knownArchiveHashes.get(sdkArchive.getAbsoluteFile());
+    }
+
+    /**
+     * Remembers the SHA-256 hash of an archive so that it need not be computed again.
+     * @param sdkArchive the archive
+     * @param sha256 the hash
+     */
+    protected void rememberArchiveHash(File sdkArchive, HashCode sha256) {
+        knownArchiveHashes.put(sdkArchive.getAbsoluteFile(), sha256);
+    }
+
+    /**
+     * Returns the SHA-256 hash of a local archive without reading the archive, if
+     * the archive is unchanged since an earlier import hashed it and recorded the
+     * hash. Checksum files kept next to the archive are not trusted, because
+     * nothing verifies them against the archive.
+     * @param source the local archive
+     * @param importRecord the record of an earlier import
+     * @return the hash, or null if it is not known
+     */
+    protected HashCode lookUpLocalArchiveHash(File source, File importRecord) {
+        if (importRecord.isFile()) {
+            Properties p = new Properties();
+            try (InputStream in = new FileInputStream(importRecord)) {
+                p.load(in);
+                if (source.getAbsolutePath().equals(p.getProperty("source.path"))
+                        && String.valueOf(source.length()).equals(p.getProperty("source.length"))
+                        && String.valueOf(source.lastModified()).equals(p.getProperty("source.lastModified"))) {
+                    return HashCode.fromString(p.getProperty("source.sha256"));
+                }
+            } catch (IOException | RuntimeException e) {
+                log.debug("could not read import record {}: {}", importRecord, e.toString());
+            }
+        }
+        return null;
+    }
+
+    private static void writeImportRecord(File importRecord, File source, HashCode sha256) {
+        Properties p = new Properties();
+        p.setProperty("source.path", source.getAbsolutePath());
+        p.setProperty("source.length", String.valueOf(source.length()));
+        p.setProperty("source.lastModified", String.valueOf(source.lastModified()));
+        p.setProperty("source.sha256", sha256.toString());
+        try {
+            File tempFile = File.createTempFile(importRecord.getName(), ".tmp", importRecord.getParentFile());
+            try {
+                try (OutputStream out = new FileOutputStream(tempFile)) {
+                    p.store(out, "imported by gae-testing-support");
+                }
+                java.nio.file.Files.move(tempFile.toPath(), importRecord.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                if (tempFile.exists()) {
+                    tempFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            log.debug("could not write import record {}: {}", importRecord, e.toString());
+        }
+    }
+
+    /**
+     * Checks whether the archive has already been unpacked, at least as far as the
+     * entries this resolver extracts. The check
+     * costs a manifest read and a few stat calls when the archive is unchanged.
+     * If only the archive's timestamp has changed, the archive is hashed and
+     * compared to the hash recorded in the manifest.
+     * @param sdkArchive the archive
+     * @return the unpacked SDK directory, or null if the archive must be unpacked
+     * @throws IOException on I/O failure
+     */
+    protected File checkUnpackManifest(File sdkArchive) throws IOException {
+        SdkUnpackManifest manifest = SdkUnpackManifest.read(sdkArchive);
+        if (manifest == null || !manifest.includes(extractedEntries)) {
+            return null;
+        }
+        if (manifest.isCurrent(sdkArchive)) {
+            return manifest.getSdkRoot();
+        }
+        if (manifest.archiveLength == sdkArchive.length() && manifest.getSdkRoot().isDirectory()) {
+            HashCode archiveHash = hashArchive(sdkArchive);
+            if (manifest.archiveSha256.equals(archiveHash.toString())) {
+                SdkUnpackManifest.describe(sdkArchive, archiveHash, manifest.getSdkRoot(), manifest.entrySubset).write();
+                return manifest.getSdkRoot();
+            }
+        }
+        return null;
+    }
+
     public interface DownloadProgressListener {
         void serverResponded(HttpResponse response);
 
@@ -58,6 +363,36 @@ public abstract class SystemSdkResolver extends AppEngineSdkResolver {
         void finished(File destinationFile);
     }
 
+    /**
+     * Phases of SDK resolution whose progress is reported to a {@link TransferProgressListener}.
+     */
+    public enum TransferPhase {
+        DOWNLOAD,
+        COPY,
+        HASH,
+        UNPACK
+    }
+
+    /**
+     * Listener that additionally receives periodic byte counts, throughput and
+     * elapsed time while the archive is downloaded, copied, hashed and unpacked.
+     * Phases may run on worker threads, so implementations must be thread-safe.
+     */
+    public interface TransferProgressListener extends DownloadProgressListener {
+
+        /**
+         * Called periodically, about once per second, while a phase is in progress.
+         * @param progress the progress so far
+         */
+        void transferProgressed(TransferProgress progress);
+
+        /**
+         * Called once when a phase completes.
+         * @param progress the final numbers of the phase
+         */
+        void transferFinished(TransferProgress progress);
+    }
+
     protected File getLocalMavenRepoPath() {
         return new File(System.getProperty("user.home")).toPath().resolve(".m2").resolve("repository").toFile();
     }
@@ -108,7 +443,7 @@ public abstract class SystemSdkResolver extends AppEngineSdkResolver {
             sdkArchive = new File(uri);
             if (!Objects.equals(sdkArchive.getParentFile().getCanonicalFile(), downloadDestination.getCanonicalFile())) {
                 File destinationFile = new File(downloadDestination, sdkArchive.getName());
-                Files.copy(sdkArchive, destinationFile);
+                importLocalArchive(sdkArchive, destinationFile);
                 sdkArchive = destinationFile;
             }
         } else {
@@ -117,6 +452,91 @@ public abstract class SystemSdkResolver extends AppEngineSdkResolver {
         return sdkArchive;
     }
 
+    /**
+     * Places a local archive, such as one in the local Maven repository, at a
+     * destination according to the import strategy. Linking falls back to
+     * copying if the filesystem does not support it or the source is on a
+     * different filesystem.
+     * @param source the local archive
+     * @param destination the destination pathname
+     * @throws IOException on I/O failure
+     */
+    protected void importLocalArchive(File source, File destination) throws IOException {
+        // never write through an existing link, which would clobber the source
+        java.nio.file.Files.deleteIfExists(destination.toPath());
+        try {
+            switch (archiveImportStrategy) {
+                case HARD_LINK:
+                    java.nio.file.Files.createLink(destination.toPath(), source.toPath());
+                    return;
+                case SYMLINK:
+                    java.nio.file.Files.createSymbolicLink(destination.toPath(), source.getAbsoluteFile().toPath());
+                    return;
+                default:
+                    break;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("could not link {} to {}; copying instead: {}", source, destination, e.toString());
+        }
+        TransferMeter meter = TransferMeter.start(transferProgressListener, TransferPhase.COPY, source.getName(), source.length());
+        // hash while copying, so the copy need not be read again
+        try (HashingInputStream in = new HashingInputStream(Hashing.sha256(), meter.wrap(new FileInputStream(source)))) {
+            Files.asByteSink(destination).writeFrom(in);
+            rememberArchiveHash(destination, in.hash());
+        }
+        meter.finish();
+    }
+
+    /**
+     * Computes the SHA-256 hash of an archive, reporting progress to the transfer
+     * progress listener.
+     * @param sdkArchive the archive
+     * @return the hash
+     * @throws IOException on I/O failure
+     */
+    protected HashCode hashArchive(File sdkArchive) throws IOException {
+        TransferMeter meter = TransferMeter.start(transferProgressListener, TransferPhase.HASH, sdkArchive.getName(), sdkArchive.length());
+        HashCode hash;
+        try (HashingInputStream in = new HashingInputStream(Hashing.sha256(), meter.wrap(new FileInputStream(sdkArchive)))) {
+            ByteStreams.exhaust(in);
+            hash = in.hash();
+        }
+        meter.finish();
+        return hash;
+    }
+
+    /**
+     * Sets how an archive found in the local Maven repository is placed in the cache.
+     * @param archiveImportStrategy the strategy
+     */
+    public void setArchiveImportStrategy(ArchiveImportStrategy archiveImportStrategy) {
+        this.archiveImportStrategy = checkNotNull(archiveImportStrategy, "archiveImportStrategy");
+    }
+
+    /**
+     * Ways of placing a local archive in the cache.
+     */
+    public enum ArchiveImportStrategy {
+
+        /**
+         * Copy the bytes of the archive.
+         */
+        COPY,
+
+        /**
+         * Create a hard link to the archive, which costs no I/O beyond a directory
+         * entry. Falls back to copying across filesystems.
+         */
+        HARD_LINK,
+
+        /**
+         * Create a symbolic link to the archive, so it is unpacked directly from
+         * its original location. The cache entry breaks if the original is deleted,
+         * in which case the archive is imported again.
+         */
+        SYMLINK
+    }
+
     /**
      * Unpacks an SDK archive zip into the directory containing the zip.
      * @param sdkArchive the zip file
@@ -124,6 +544,17 @@ public abstract class SystemSdkResolver extends AppEngineSdkResolver {
      * @throws IOException on I/O failures
      */
     protected static File unpackSdk(File sdkArchive) throws IOException {
+        return unpackSdk(sdkArchive, new SdkArchiveExtractor(SdkArchiveExtractor.defaultParallelism()));
+    }
+
+    /**
+     * Unpacks an SDK archive zip into the directory containing the zip.
+     * @param sdkArchive the zip file
+     * @param extractor the extractor to use
+     * @return the directory containing the files unpacked from the archive
+     * @throws IOException on I/O failures
+     */
+    protected static File unpackSdk(File sdkArchive, SdkArchiveExtractor extractor) throws IOException {
         File sdkRepoDir = sdkArchive.getParentFile();
         File sdkBaseDir = new File(sdkRepoDir, SDK_ARTIFACT_ID);
 
@@ -136,47 +567,51 @@ public abstract class SystemSdkResolver extends AppEngineSdkResolver {
             sdkBaseDir.mkdirs();
         }
 
-        // While processing the zip archive, if we find an initial entry that is a directory, and all entries are a child
-        // of this directory, then we append this to the sdkBaseDir we return.
-        String sdkBaseDirSuffix = null;
+        return extractor.extract(sdkArchive, sdkBaseDir);
+    }
 
-        ZipFile sdkZipArchive = new ZipFile(sdkArchive);
-        Enumeration<? extends ZipEntry> zipEntries = sdkZipArchive.entries();
+    /**
+     * Sets the number of threads used to unpack the SDK archive.
+     * @param unpackParallelism the number of threads; must be positive
+     */
+    public void setUnpackParallelism(int unpackParallelism) {
+        checkArgument(unpackParallelism > 0, "unpackParallelism must be positive: %s", unpackParallelism);
+        this.unpackParallelism = unpackParallelism;
+    }
 
-        if (!zipEntries.hasMoreElements()) {
-            throw new IOException("The SDK zip archive appears corrupted.  There are no entries in the zip index.");
-        }
+    /**
+     * Restricts unpacking to some of the archive's entries. Entries are named by
+     * paths relative to the SDK root, as described by {@link #STAGING_ENTRIES}.
+     * Entries that have already been unpacked, for example by a resolver that
+     * extracts the whole archive, are reused.
+     * @param paths the entries to extract, or null to extract the whole archive
+     */
+    public void setExtractedEntries(Collection<String> paths) {
+        this.extractedEntries = paths == null ? null : SdkEntrySubset.of(paths);
+    }
 
-        ZipEntry firstEntry = zipEntries.nextElement();
-        if (firstEntry.isDirectory()) {
-            sdkBaseDirSuffix = firstEntry.getName();
+    protected SdkArchiveExtractor createArchiveExtractor() {
+        SdkArchiveExtractor extractor;
+        if (extractedEntries == null) {
+            extractor = new SdkArchiveExtractor(unpackParallelism);
         } else {
-            //Reinitialize entries
-            zipEntries = sdkZipArchive.entries();
-        }
-
-        while (zipEntries.hasMoreElements()) {
-            ZipEntry zipEntry = zipEntries.nextElement();
-
-            if (!zipEntry.isDirectory()) {
-                File zipEntryDestination = new File(sdkBaseDir, zipEntry.getName());
-                checkState(sdkBaseDirSuffix != null, "sdkBaseDirSuffix is null; is there no more than one entry in this zip?");
-                if (!zipEntry.getName().startsWith(sdkBaseDirSuffix)) {
-                    //We found an entry that doesn't use this initial base directory, oh well, just set it to null.
-                    sdkBaseDirSuffix = null;
-                }
-
-                if (!zipEntryDestination.exists()) {
-                    Files.createParentDirs(zipEntryDestination);
-                    Files.write(ByteStreams.toByteArray(sdkZipArchive.getInputStream(zipEntry)), zipEntryDestination);
-                }
-            }
+            extractor = new SdkArchiveExtractor(unpackParallelism, SdkArchiveExtractor.DEFAULT_BUFFER_SIZE, extractedEntries);
         }
+        extractor.setProgressListener(transferProgressListener);
+        return extractor;
+    }
 
-        if (sdkBaseDirSuffix == null) {
-            return sdkBaseDir;
-        }
+    /**
+     * Sets the listener that receives byte-level progress of each phase of
+     * resolution. A {@link DownloadingSdkResolver} constructed with a listener
+     * that implements {@link TransferProgressListener} uses it by default.
+     * @param transferProgressListener the listener, or null to report nothing
+     */
+    public void setTransferProgressListener(TransferProgressListener transferProgressListener) {
+        this.transferProgressListener = transferProgressListener;
+    }
 
-        return new File(sdkBaseDir, sdkBaseDirSuffix);
+    protected TransferProgressListener getTransferProgressListener() {
+        return transferProgressListener;
     }
 }
@@ -0,0 +1,110 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferPhase;
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferProgressListener;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts the bytes moved during one phase of SDK resolution and reports to a
+ * {@link TransferProgressListener} at most once per reporting interval. Safe
+ * for use by several threads at once, as when segments are downloaded or
+ * entries are extracted in parallel.
+ */
+class TransferMeter {
+
+    public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 1000;
+
+    private final TransferProgressListener listener;
+    private final TransferPhase phase;
+    private final String subject;
+    private final long totalBytes;
+    private final long startNanos;
+    private final long reportIntervalNanos;
+    private final AtomicLong bytesTransferred = new AtomicLong();
+    private final AtomicLong nextReportNanos;
+
+    private TransferMeter(TransferProgressListener listener, TransferPhase phase, String subject, long totalBytes, long reportIntervalNanos) {
+        this.listener = listener;
+        this.phase = checkNotNull(phase);
+        this.subject = checkNotNull(subject);
+        this.totalBytes = totalBytes;
+        this.reportIntervalNanos = reportIntervalNanos;
+        this.startNanos = System.nanoTime();
+        this.nextReportNanos = new AtomicLong(startNanos + reportIntervalNanos);
+    }
+
+    /**
+     * Starts metering a phase.
+     * @param listener the listener; may be null, in which case nothing is reported
+     * @param phase the phase
+     * @param subject what is being transferred
+     * @param totalBytes the expected total, or -1 if unknown
+     * @return the meter
+     */
+    public static TransferMeter start(TransferProgressListener listener, TransferPhase phase, String subject, long totalBytes) {
+        return new TransferMeter(listener, phase, subject, totalBytes, TimeUnit.MILLISECONDS.toNanos(DEFAULT_REPORT_INTERVAL_MILLIS));
+    }
+
+    public void add(long numBytes) {
+        long transferred = bytesTransferred.addAndGet(numBytes);
+        if (listener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long next = nextReportNanos.get();
+        if (now - next >= 0 && nextReportNanos.compareAndSet(next, now + reportIntervalNanos)) {
+            listener.transferProgressed(new TransferProgress(phase, subject, transferred, totalBytes, now - startNanos));
+        }
+    }
+
+    /**
+     * Ends the phase and reports the final numbers.
+     * @return the final progress
+     */
+    public TransferProgress finish() {
+        TransferProgress progress = new TransferProgress(phase, subject, bytesTransferred.get(), totalBytes, System.nanoTime() - startNanos);
+        if (listener != null) {
+            listener.transferFinished(progress);
+        }
+        return progress;
+    }
+
+    /**
+     * Wraps a stream so that the bytes read from it are counted by this meter.
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    add(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int r = super.read(b, off, len);
+                if (r > 0) {
+                    add(r);
+                }
+                return r;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                add(skipped);
+                return skipped;
+            }
+        };
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.mike10004.gaetesting.SystemSdkResolver.TransferPhase;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Snapshot of the progress of one phase of SDK resolution, such as the download
+ * of the archive or its unpacking.
+ */
+public class TransferProgress {
+
+    private final TransferPhase phase;
+    private final String subject;
+    private final long bytesTransferred;
+    private final long totalBytes;
+    private final long elapsedNanos;
+
+    public TransferProgress(TransferPhase phase, String subject, long bytesTransferred, long totalBytes, long elapsedNanos) {
+        this.phase = checkNotNull(phase, "phase");
+        this.subject = checkNotNull(subject, "subject");
+        this.bytesTransferred = bytesTransferred;
+        this.totalBytes = totalBytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public TransferPhase getPhase() {
+        return phase;
+    }
+
+    /**
+     * Returns a description of what is being transferred, such as a URL or filename.
+     * @return the subject
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * Returns the number of bytes expected in total.
+     * @return the total, or -1 if it is not known
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getElapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the average throughput since the phase started.
+     * @return bytes per second
+     */
+    public double getBytesPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return bytesTransferred / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: %d/%s bytes in %d ms (%.1f KiB/s)", phase, subject, bytesTransferred,
+                totalBytes < 0 ? "?" : String.valueOf(totalBytes), getElapsed(TimeUnit.MILLISECONDS), getBytesPerSecond() / 1024);
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheDirectoryLockTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @SuppressWarnings("try")
+    @Test
+    public void exclusive() throws Exception {
+        final File lockFile = new File(tmp.getRoot(), "entry.lock");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            long releasedAt;
+            Future<Long> waiter;
+            try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(lockFile, 1, TimeUnit.SECONDS)) {
+                waiter = executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(lockFile, 10, TimeUnit.SECONDS)) {
+                            return System.nanoTime();
+                        }
+                    }
+                });
+                Thread.sleep(250);
+                releasedAt = System.nanoTime();
+            }
+            long acquiredAt = waiter.get(10, TimeUnit.SECONDS);
+            assertTrue("second holder acquired after first released", acquiredAt >= releasedAt);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SuppressWarnings("try")
+    @Test
+    public void timeout() throws Exception {
+        final File lockFile = new File(tmp.getRoot(), "entry.lock");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(lockFile, 1, TimeUnit.SECONDS)) {
+            Future<?> waiter = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    CacheDirectoryLock.acquire(lockFile, 100, TimeUnit.MILLISECONDS).close();
+                    return null;
+                }
+            });
+            try {
+                waiter.get(10, TimeUnit.SECONDS);
+                fail("should have timed out");
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertTrue("cause is IOException", e.getCause() instanceof IOException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void staleLookingLockNotBroken() throws Exception {
+        File lockFile = new File(tmp.getRoot(), "entry.lock");
+        // a live holder that stopped touching the lock file
+        try (RandomAccessFile foreign = new RandomAccessFile(lockFile, "rw")) {
+            FileLock foreignLock = foreign.getChannel().lock();
+            assertTrue("set mtime", lockFile.setLastModified(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10)));
+            try {
+                CacheDirectoryLock.acquire(lockFile, 500, TimeUnit.MILLISECONDS, 100).close();
+                fail("should not have broken a lock held by a live holder");
+            } catch (IOException expected) {
+                assertTrue("lock file kept", lockFile.isFile());
+            }
+            foreignLock.release();
+        }
+    }
+
+    @Test
+    public void abandonedLockFileAcquired() throws Exception {
+        File lockFile = new File(tmp.getRoot(), "entry.lock");
+        // a lock file left behind by a holder that died; the OS released its lock
+        try (RandomAccessFile foreign = new RandomAccessFile(lockFile, "rw")) {
+            foreign.getChannel().lock().release();
+        }
+        assertTrue("set mtime", lockFile.setLastModified(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10)));
+        try (CacheDirectoryLock lock = CacheDirectoryLock.acquire(lockFile, 1, TimeUnit.SECONDS, 1000)) {
+            assertTrue("lock file", lock.getLockFile().isFile());
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class DevServerExitedExceptionTest {
+
+    @Test
+    public void serializable() throws Exception {
+        DevServerExitedException exception = new DevServerExitedException(1, Arrays.asList("Starting", "Address already in use"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(exception);
+        }
+        DevServerExitedException copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (DevServerExitedException) in.readObject();
+        }
+        assertEquals("exit code", 1, copy.getExitCode());
+        assertEquals("last lines", exception.getLastLines(), copy.getLastLines());
+        assertEquals("message", exception.getMessage(), copy.getMessage());
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DevServerPoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void leaseAndRelease() throws Exception {
+        try (DevServerPool pool = new DevServerPool(new FakeDevServerFactory(temporaryFolder), 2, DevServerPool.reuseOnRelease())) {
+            pool.setStopTimeout(100, TimeUnit.MILLISECONDS);
+            GCloudAsyncRunner first = pool.lease(10, TimeUnit.SECONDS);
+            GCloudAsyncRunner second = pool.lease(10, TimeUnit.SECONDS);
+            assertTrue(first.isRunning() && second.isRunning());
+            assertNotEquals("ports", first.getHost(), second.getHost());
+            assertNotEquals("admin ports", first.getAdmin_host(), second.getAdmin_host());
+            assertNotEquals("storage", first.getStorage_path(), second.getStorage_path());
+            pool.release(first);
+            assertSame("reused", first, pool.lease(10, TimeUnit.SECONDS));
+            pool.release(first);
+            pool.release(second);
+        }
+    }
+
+    @Test
+    public void serverExitedWhileIdleReplaced() throws Exception {
+        try (DevServerPool pool = new DevServerPool(new FakeDevServerFactory(temporaryFolder, 1), 1, DevServerPool.reuseOnRelease())) {
+            pool.setStopTimeout(100, TimeUnit.MILLISECONDS);
+            Thread.sleep(1000);
+            GCloudAsyncRunner runner = pool.lease(10, TimeUnit.SECONDS);
+            assertTrue("leased server running", runner.isRunning());
+            pool.release(runner);
+        }
+    }
+
+    @Test
+    public void replaceOnRelease() throws Exception {
+        GCloudAsyncRunner first;
+        GCloudAsyncRunner replacement;
+        try (DevServerPool pool = new DevServerPool(new FakeDevServerFactory(temporaryFolder), 1, DevServerPool.replaceOnRelease())) {
+            pool.setStopTimeout(100, TimeUnit.MILLISECONDS);
+            first = pool.lease(10, TimeUnit.SECONDS);
+            pool.release(first);
+            replacement = pool.lease(10, TimeUnit.SECONDS);
+            assertNotEquals("replaced", first, replacement);
+            assertFalse("released server stopped", awaitRunning(first));
+            pool.release(replacement);
+        }
+        assertFalse("stopped on close", awaitRunning(replacement));
+    }
+
+    /**
+     * Waits for a runner's server to stop.
+     * @return true if it is still running after the wait
+     */
+    private static boolean awaitRunning(GCloudAsyncRunner runner) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (runner.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(25);
+        }
+        return runner.isRunning();
+    }
+}
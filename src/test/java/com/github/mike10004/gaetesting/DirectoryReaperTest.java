@@ -0,0 +1,59 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryReaperTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static File newDirectory(File parent, String name) throws Exception {
+        File directory = new File(parent, name);
+        File file = new File(directory, "sub/file.txt");
+        Files.createParentDirs(file);
+        Files.write("hello", file, UTF_8);
+        return directory;
+    }
+
+    @Test
+    public void reap() throws Exception {
+        File parent = temporaryFolder.newFolder();
+        File leftover = newDirectory(parent, "old" + DirectoryReaper.REAP_MARKER + "123");
+        File directory = newDirectory(parent, "staging");
+        DirectoryReaper reaper = new DirectoryReaper();
+        reaper.reap(directory);
+        assertFalse("path freed at once", directory.exists());
+        assertTrue("awaitIdle", reaper.awaitIdle(10, TimeUnit.SECONDS));
+        assertFalse("leftover from earlier run deleted", leftover.exists());
+        assertEquals("remaining", 0, parent.list().length);
+        reaper.reap(directory);
+    }
+
+    @Test
+    public void sweep() throws Exception {
+        File parent = temporaryFolder.newFolder();
+        File orphan = newDirectory(parent, DirectoryReaper.STAGING_TEMP_PREFIX + "123");
+        assertTrue(orphan.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+        File recent = newDirectory(parent, DirectoryReaper.STAGING_TEMP_PREFIX + "456");
+        File other = newDirectory(parent, "other");
+        assertTrue(other.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2)));
+        DirectoryReaper reaper = new DirectoryReaper();
+        reaper.sweep(parent, DirectoryReaper.STAGING_TEMP_PREFIX, 1, TimeUnit.DAYS);
+        assertTrue("awaitIdle", reaper.awaitIdle(10, TimeUnit.SECONDS));
+        String[] remaining = parent.list();
+        Arrays.sort(remaining);
+        assertEquals(Arrays.asList(recent.getName(), other.getName()), Arrays.asList(remaining));
+    }
+}
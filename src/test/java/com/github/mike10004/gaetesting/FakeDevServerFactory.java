@@ -0,0 +1,70 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.base.Suppliers;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Factory of runners whose server is a shell process that only pretends to
+ * start. The server has no admin endpoint, so stopping it kills it.
+ */
+class FakeDevServerFactory extends GCloudAsyncRunnerFactory {
+
+    private final TemporaryFolder temporaryFolder;
+    private final int shortLivedCount;
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicInteger startCount = new AtomicInteger();
+
+    public FakeDevServerFactory(TemporaryFolder temporaryFolder) {
+        this(temporaryFolder, 0);
+    }
+
+    /**
+     * Constructs a factory whose first servers exit shortly after starting.
+     * @param temporaryFolder folder for the application and staging directories
+     * @param shortLivedCount the number of servers that exit shortly after starting
+     */
+    public FakeDevServerFactory(TemporaryFolder temporaryFolder, int shortLivedCount) {
+        this.temporaryFolder = checkNotNull(temporaryFolder);
+        this.shortLivedCount = shortLivedCount;
+    }
+
+    @Override
+    public GCloudAsyncRunner createRunner() throws IOException {
+        final File dir = temporaryFolder.getRoot();
+        final String script = created.getAndIncrement() < shortLivedCount ? "echo started; sleep 0.2" : "echo started; exec sleep 60";
+        GCloudAsyncRunner runner = new GCloudAsyncRunner(dir.getAbsolutePath(), temporaryFolder.newFolder().getAbsolutePath(),
+                GCloudBase.DEFAULT_JAVA_VERSION, Suppliers.ofInstance(dir.getAbsolutePath()), AppEngineSdkResolver.localOnlyResolver(dir)) {
+            @Override
+            public void execute() throws IOException {
+                startCount.incrementAndGet();
+                startCommand(dir, new ArrayList<>(Arrays.asList("sh", "-c", script)), WaitDirective.WAIT_SERVER_STARTED);
+            }
+
+            @Override
+            public StopResult stop(long timeout, TimeUnit unit) {
+                kill();
+                return new StopResult(StopResult.Outcome.KILLED, 0);
+            }
+        };
+        runner.setReadinessProbe(ReadinessProbes.logPattern(Pattern.compile("started")));
+        return runner;
+    }
+
+    /**
+     * Returns the number of servers started.
+     * @return the count
+     */
+    public int getStartCount() {
+        return startCount.get();
+    }
+}
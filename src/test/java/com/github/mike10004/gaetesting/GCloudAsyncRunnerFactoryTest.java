@@ -2,6 +2,8 @@ package com.github.mike10004.gaetesting;
 
 import org.junit.Test;
 
+import java.io.File;
+
 import static org.junit.Assert.*;
 
 public class GCloudAsyncRunnerFactoryTest {
@@ -16,4 +18,15 @@ public class GCloudAsyncRunnerFactoryTest {
         DevServerRule.factoryBuilder().rule(); // ok as long as no exception
     }
 
-}
\ No newline at end of file
+    @Test
+    public void withSegmentedSdkDownload() {
+        GCloudAsyncRunnerFactory.Builder builder = GCloudAsyncRunnerFactory.builder(new File("."));
+        assertEquals("default", 1, defaultSystemSdkResolver(builder).getDownloadSegments());
+        DownloadingSdkResolver resolver = defaultSystemSdkResolver(builder.withStagingOnlyAppengineSdk().withSegmentedSdkDownload(4));
+        assertEquals("segments", 4, resolver.getDownloadSegments());
+    }
+
+    private static DownloadingSdkResolver defaultSystemSdkResolver(GCloudAsyncRunnerFactory.Builder builder) {
+        return (DownloadingSdkResolver) ((MemoizingSdkResolver) builder.defaultAppengineSdkResolver()).getDelegate();
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.google.common.base.Suppliers;
+import com.google.common.net.HostAndPort;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GCloudAsyncRunnerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private GCloudAsyncRunner startFakeServer() throws IOException {
+        File dir = temporaryFolder.getRoot();
+        GCloudAsyncRunner runner = new GCloudAsyncRunner(dir.getAbsolutePath(), temporaryFolder.newFolder().getAbsolutePath(),
+                GCloudBase.DEFAULT_JAVA_VERSION, Suppliers.ofInstance(dir.getAbsolutePath()), AppEngineSdkResolver.localOnlyResolver(dir));
+        runner.setAdmin_host(HostAndPort.fromParts("localhost", unusedPort()).toString());
+        runner.setReadinessProbe(ReadinessProbes.logPattern(Pattern.compile("started")));
+        ArrayList<String> command = new ArrayList<>(Arrays.asList("sh", "-c", "sleep 30 & sleep 30 & echo started; wait"));
+        runner.startCommand(dir, command, GCloudBase.WaitDirective.WAIT_SERVER_STARTED);
+        return runner;
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static List<Long> awaitChildren(Process process, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        List<Long> children = ProcessTrees.descendants(process);
+        while (children.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            children = ProcessTrees.descendants(process);
+        }
+        return children;
+    }
+
+    private static boolean isRunning(long pid) throws Exception {
+        return GCloudServerStopperTest.isRunning(pid);
+    }
+
+    @Test
+    public void resetState() throws Exception {
+        WireMockServer apiServer = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        apiServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/clear")).willReturn(WireMock.aResponse().withStatus(200)));
+        apiServer.start();
+        try {
+            File dir = temporaryFolder.getRoot();
+            GCloudAsyncRunner runner = new GCloudAsyncRunner(dir.getAbsolutePath(), dir.getAbsolutePath(),
+                    GCloudBase.DEFAULT_JAVA_VERSION, Suppliers.ofInstance(dir.getAbsolutePath()), AppEngineSdkResolver.localOnlyResolver(dir));
+            runner.setApi_host(HostAndPort.fromParts("localhost", apiServer.port()).toString());
+            runner.resetState();
+            apiServer.verify(WireMock.getRequestedFor(WireMock.urlEqualTo("/clear?stub=datastore_v3&stub=memcache&stub=taskqueue")));
+        } finally {
+            apiServer.stop();
+        }
+    }
+
+    @Test
+    public void kill() throws Exception {
+        GCloudAsyncRunner runner = startFakeServer();
+        assertTrue("running", runner.isRunning());
+        List<Long> children = awaitChildren(runner.getProcess(), 2);
+        assertEquals("children", 2, children.size());
+        runner.kill();
+        assertFalse("running", runner.isRunning());
+        for (Long child : children) {
+            assertFalse("child " + child, isRunning(child));
+        }
+    }
+
+    @Test
+    public void stop_escalates() throws Exception {
+        GCloudAsyncRunner runner = startFakeServer();
+        List<Long> children = awaitChildren(runner.getProcess(), 2);
+        StopResult result = runner.stop(100, TimeUnit.MILLISECONDS);
+        assertEquals(StopResult.Outcome.TERMINATED, result.getOutcome());
+        assertFalse("running", runner.isRunning());
+        for (Long child : children) {
+            assertFalse("child " + child, isRunning(child));
+        }
+    }
+}
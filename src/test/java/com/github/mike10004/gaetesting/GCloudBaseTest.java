@@ -0,0 +1,135 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.apphosting.utils.config.AppEngineWebXml;
+import com.google.common.base.Suppliers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GCloudBaseTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private GCloudBase newInstance() throws IOException {
+        return newInstance(null);
+    }
+
+    /**
+     * Creates an instance whose {@code getAppEngineWebXml} waits on a latch and then fails, if the latch is not null.
+     */
+    private GCloudBase newInstance(final CountDownLatch stagingLatch) throws IOException {
+        File dir = temporaryFolder.getRoot();
+        return new GCloudBase(dir.getAbsolutePath(), temporaryFolder.newFolder().getAbsolutePath(), GCloudBase.DEFAULT_JAVA_VERSION,
+                Suppliers.ofInstance(dir.getAbsolutePath()), AppEngineSdkResolver.localOnlyResolver(dir)) {
+            @Override
+            protected AppEngineWebXml getAppEngineWebXml(String webAppDir) throws GCloudExecutionException {
+                if (stagingLatch == null) {
+                    return super.getAppEngineWebXml(webAppDir);
+                }
+                stagingLatch.countDown();
+                try {
+                    if (!stagingLatch.await(2, TimeUnit.SECONDS)) {
+                        throw new GCloudExecutionException("modules were not staged concurrently");
+                    }
+                } catch (InterruptedException e) {
+                    throw new GCloudExecutionException(e);
+                }
+                throw new GCloudExecutionException("bad appengine-web.xml in " + new File(webAppDir).getName());
+            }
+
+            @Override
+            protected ArrayList<String> getCommand(String appDir) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void execute() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void startCommand_processExitsDuringStartup() throws Exception {
+        GCloudBase instance = newInstance();
+        StringBuilder script = new StringBuilder();
+        for (int i = 1; i <= GCloudBase.STARTUP_FAILURE_OUTPUT_LINES + 10; i++) {
+            script.append("echo line ").append(i).append("; ");
+        }
+        script.append("echo 'address already in use' >&2; exit 3");
+        ArrayList<String> command = new ArrayList<>(Arrays.asList("sh", "-c", script.toString()));
+        long start = System.nanoTime();
+        try {
+            instance.startCommand(temporaryFolder.getRoot(), command, GCloudBase.WaitDirective.WAIT_SERVER_STARTED);
+            fail("should have thrown");
+        } catch (DevServerExitedException e) {
+            assertEquals("exit code", 3, e.getExitCode());
+            assertEquals("line count", GCloudBase.STARTUP_FAILURE_OUTPUT_LINES, e.getLastLines().size());
+            assertTrue("last lines " + e.getLastLines(), e.getLastLines().contains("address already in use"));
+            assertTrue("message " + e.getMessage(), e.getMessage().contains("exited with code 3"));
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("noticed exit quickly: " + elapsedMillis + "ms", elapsedMillis < 5000);
+    }
+
+    @Test
+    public void executeAppCfgStagingCommands_collectsFailuresPerModule() throws Exception {
+        List<File> moduleDirs = Arrays.asList(temporaryFolder.newFolder("default"), temporaryFolder.newFolder("backend"));
+        GCloudBase instance = newInstance(new CountDownLatch(moduleDirs.size()));
+        instance.setMaxStagingThreads(moduleDirs.size());
+        // the stubbed getAppEngineWebXml fails before any worker would be started
+        instance.setStagingWorkerPool(new StagingWorkerPool(1));
+        String sdkRoot = System.getProperty("appengine.sdk.root");
+        try {
+            instance.executeAppCfgStagingCommands(moduleDirs);
+            fail("should have thrown");
+        } catch (GCloudExecutionException e) {
+            String message = e.getMessage();
+            assertTrue(message, message.startsWith("staging failed for 2 of 2 modules:"));
+            assertTrue(message, message.contains("default: " + GCloudExecutionException.class.getName() + ": bad appengine-web.xml in default"));
+            assertTrue(message, message.contains("backend: " + GCloudExecutionException.class.getName() + ": bad appengine-web.xml in backend"));
+            assertEquals("suppressed", 1, e.getSuppressed().length);
+        } finally {
+            if (sdkRoot == null) {
+                System.clearProperty("appengine.sdk.root");
+            } else {
+                System.setProperty("appengine.sdk.root", sdkRoot);
+            }
+        }
+    }
+
+    @Test
+    public void executeAppCfgStagingCommands_sequentialInThisJvm() throws Exception {
+        List<File> moduleDirs = Arrays.asList(temporaryFolder.newFolder("default"), temporaryFolder.newFolder("backend"));
+        GCloudBase instance = newInstance(new CountDownLatch(moduleDirs.size()));
+        instance.setMaxStagingThreads(moduleDirs.size());
+        String sdkRoot = System.getProperty("appengine.sdk.root");
+        try {
+            instance.executeAppCfgStagingCommands(moduleDirs);
+            fail("should have thrown");
+        } catch (GCloudExecutionException e) {
+            String message = e.getMessage();
+            assertTrue(message, message.contains("default: " + GCloudExecutionException.class.getName() + ": modules were not staged concurrently"));
+            assertTrue(message, message.contains("backend: " + GCloudExecutionException.class.getName() + ": bad appengine-web.xml in backend"));
+        } finally {
+            if (sdkRoot == null) {
+                System.clearProperty("appengine.sdk.root");
+            } else {
+                System.setProperty("appengine.sdk.root", sdkRoot);
+            }
+        }
+    }
+}
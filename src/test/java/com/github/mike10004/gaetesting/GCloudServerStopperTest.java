@@ -0,0 +1,133 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.google.common.io.Files;
+import com.google.common.net.HostAndPort;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GCloudServerStopperTest {
+
+    private static WireMockServer startAdminServer() {
+        WireMockServer server = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/quit")).willReturn(WireMock.aResponse().withStatus(200)));
+        server.start();
+        return server;
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    @Test
+    public void notRunning() throws Exception {
+        StopResult result = new GCloudServerStopper(HostAndPort.fromParts("localhost", unusedPort())).stop(5, TimeUnit.SECONDS);
+        assertEquals(StopResult.Outcome.NOT_RUNNING, result.getOutcome());
+    }
+
+    @Test
+    public void returnsAsSoonAsProcessExits() throws Exception {
+        WireMockServer admin = startAdminServer();
+        try {
+            Process process = new ProcessBuilder("sleep", "0.2").start();
+            StopResult result = new GCloudServerStopper(HostAndPort.fromParts("localhost", admin.port()), null, process).stop(10, TimeUnit.SECONDS);
+            assertEquals(StopResult.Outcome.GRACEFUL, result.getOutcome());
+            assertTrue("elapsed " + result, result.getElapsed(TimeUnit.MILLISECONDS) < 5000);
+        } finally {
+            admin.stop();
+        }
+    }
+
+    @Test
+    public void waitsForPortsAfterProcessExits() throws Exception {
+        final WireMockServer admin = startAdminServer();
+        // stands in for a child of the dev server process that holds the port after the process exits
+        final ServerSocket serverSocket = new ServerSocket(0);
+        try {
+            Process process = new ProcessBuilder("sleep", "0.1").start();
+            Thread closer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(300);
+                        admin.stop();
+                        Thread.sleep(300);
+                        serverSocket.close();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            closer.start();
+            HostAndPort serverHost = HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
+            StopResult result = new GCloudServerStopper(HostAndPort.fromParts("localhost", admin.port()), serverHost, process).stop(10, TimeUnit.SECONDS);
+            assertEquals(StopResult.Outcome.GRACEFUL, result.getOutcome());
+            assertTrue("waited for ports: " + result, result.getElapsed(TimeUnit.MILLISECONDS) >= 500);
+            closer.join();
+        } finally {
+            admin.stop();
+            serverSocket.close();
+        }
+    }
+
+    @Test
+    public void escalatesToProcessTree() throws Exception {
+        WireMockServer admin = startAdminServer();
+        try {
+            Process process = new ProcessBuilder("sh", "-c", "sleep 30 & sleep 30 & wait").start();
+            long deadline = System.currentTimeMillis() + 5000;
+            List<Long> children;
+            do {
+                children = ProcessTrees.descendants(process);
+            } while (children.size() < 2 && System.currentTimeMillis() < deadline);
+            assertEquals("children " + children, 2, children.size());
+            StopResult result = new GCloudServerStopper(HostAndPort.fromParts("localhost", admin.port()), null, process).stop(100, TimeUnit.MILLISECONDS);
+            assertEquals(StopResult.Outcome.TERMINATED, result.getOutcome());
+            assertTrue("exited", ProcessTrees.hasExited(process));
+            for (Long child : children) {
+                assertFalse("child " + child + " still running", isRunning(child));
+            }
+        } finally {
+            admin.stop();
+        }
+    }
+
+    static boolean isRunning(long pid) throws Exception {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < deadline) {
+            if (new ProcessBuilder("kill", "-0", String.valueOf(pid)).start().waitFor() != 0 || isZombie(pid)) {
+                return false;
+            }
+            Thread.sleep(25);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a process has exited but not been reaped, which happens
+     * to orphans in containers whose init process does not reap them.
+     */
+    private static boolean isZombie(long pid) throws IOException {
+        File stat = new File("/proc/" + pid + "/stat");
+        if (!stat.isFile()) {
+            return false;
+        }
+        String content = Files.toString(stat, StandardCharsets.US_ASCII);
+        int end = content.lastIndexOf(')');
+        return end >= 0 && content.startsWith(" Z", end + 1);
+    }
+}
@@ -0,0 +1,110 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MemoizingSdkResolverTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @After
+    public void forget() {
+        MemoizingSdkResolver.clear();
+    }
+
+    private static class CountingResolver extends AppEngineSdkResolver {
+
+        public final AtomicInteger calls = new AtomicInteger();
+        private final File sdkDir;
+        private final CountDownLatch proceed;
+        private volatile boolean fail;
+
+        private CountingResolver(File sdkDir, CountDownLatch proceed) {
+            this.sdkDir = sdkDir;
+            this.proceed = proceed;
+        }
+
+        @Override
+        public File resolve(File cacheDir) throws IOException {
+            calls.incrementAndGet();
+            try {
+                proceed.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (fail) {
+                throw new IOException("failing on purpose");
+            }
+            return sdkDir;
+        }
+    }
+
+    @Test
+    public void resolve_concurrentCallersShareOneResolution() throws Exception {
+        File sdkDir = tmp.newFolder();
+        final File cacheDir = tmp.newFolder();
+        CountDownLatch proceed = new CountDownLatch(1);
+        CountingResolver delegate = new CountingResolver(sdkDir, proceed);
+        int numCallers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(numCallers);
+        try {
+            List<Future<File>> results = new ArrayList<>();
+            for (int i = 0; i < numCallers; i++) {
+                // a distinct decorator per caller, as with separately built factories
+                final AppEngineSdkResolver resolver = AppEngineSdkResolver.memoizing("1.2.3", delegate);
+                results.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        return resolver.resolve(cacheDir);
+                    }
+                }));
+            }
+            Thread.sleep(100);
+            proceed.countDown();
+            for (Future<File> result : results) {
+                assertEquals("result", sdkDir, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("delegate calls", 1, delegate.calls.get());
+        AppEngineSdkResolver.memoizing("1.2.4", delegate).resolve(cacheDir);
+        assertEquals("delegate calls after resolving another version", 2, delegate.calls.get());
+    }
+
+    @Test
+    public void resolve_failureNotRemembered() throws Exception {
+        File sdkDir = tmp.newFolder();
+        File cacheDir = tmp.newFolder();
+        CountDownLatch proceed = new CountDownLatch(0);
+        CountingResolver delegate = new CountingResolver(sdkDir, proceed);
+        delegate.fail = true;
+        AppEngineSdkResolver resolver = AppEngineSdkResolver.memoizing("1.2.3", delegate);
+        try {
+            resolver.resolve(cacheDir);
+            fail("should have failed");
+        } catch (IOException expected) {
+        }
+        delegate.fail = false;
+        assertEquals("result", sdkDir, resolver.resolve(cacheDir));
+        assertEquals("delegate calls", 2, delegate.calls.get());
+    }
+}
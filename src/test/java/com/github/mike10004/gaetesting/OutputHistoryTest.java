@@ -0,0 +1,84 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class OutputHistoryTest {
+
+    @Test
+    public void boundedWithMarks() {
+        OutputHistory history = new OutputHistory(3);
+        history.add("a");
+        long mark = history.mark();
+        history.add("b");
+        history.add("c");
+        assertEquals(Arrays.asList("b", "c"), history.linesSince(mark));
+        history.add("d");
+        history.add("e");
+        assertEquals("oldest overwritten", Arrays.asList("c", "d", "e"), history.linesSince(mark));
+        assertEquals(Arrays.asList("d", "e"), history.tail(2));
+        assertEquals(Collections.<String>emptyList(), history.linesSince(history.mark()));
+    }
+
+    @Test
+    public void awaitLine() throws Exception {
+        final OutputHistory history = new OutputHistory(100);
+        history.add("task foo ran");
+        assertEquals("buffered since mark", "task foo ran", history.awaitLine(Pattern.compile("task \\w+ ran"), 0, 0, TimeUnit.SECONDS));
+        assertNull("only new lines", history.awaitLine(Pattern.compile("task \\w+ ran"), 10, TimeUnit.MILLISECONDS));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Future<String> first = executor.submit(awaiting(history, Pattern.compile("task (\\w+) ran")));
+            Future<String> second = executor.submit(awaiting(history, Pattern.compile("QUEUE EMPTY", Pattern.CASE_INSENSITIVE)));
+            Future<String> third = executor.submit(awaiting(history, Pattern.compile("(\\d)\\1")));
+            Thread.sleep(100);
+            history.add("unrelated");
+            history.add("task bar ran");
+            history.add("queue empty");
+            history.add("code 77");
+            assertEquals("task bar ran", first.get(5, TimeUnit.SECONDS));
+            assertEquals("queue empty", second.get(5, TimeUnit.SECONDS));
+            assertEquals("code 77", third.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void awaitLine_sameNamedGroup() throws Exception {
+        final OutputHistory history = new OutputHistory(100);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(awaiting(history, Pattern.compile("request id=(?<id>\\d+)")));
+            Future<String> second = executor.submit(awaiting(history, Pattern.compile("response id=(?<id>\\d+)")));
+            Thread.sleep(100);
+            history.add("unrelated");
+            history.add("request id=1");
+            history.add("response id=1");
+            assertEquals("request id=1", first.get(5, TimeUnit.SECONDS));
+            assertEquals("response id=1", second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Callable<String> awaiting(final OutputHistory history, final Pattern pattern) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return history.awaitLine(pattern, 5, TimeUnit.SECONDS);
+            }
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.Test;
+
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessOutputPumpTest {
+
+    private static class CollectingConsumer implements ProcessOutputPump.LineConsumer {
+
+        public final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        public final CountDownLatch endedLatch = new CountDownLatch(1);
+
+        @Override
+        public void consume(String line) {
+            lines.add(line);
+        }
+
+        @Override
+        public void ended() {
+            endedLatch.countDown();
+        }
+    }
+
+    private static Process sh(String script) throws Exception {
+        return new ProcessBuilder("sh", "-c", script).redirectErrorStream(true).start();
+    }
+
+    @Test
+    public void linesDeliveredInOrder() throws Exception {
+        ProcessOutputPump pump = new ProcessOutputPump(100);
+        CollectingConsumer first = new CollectingConsumer(), second = new CollectingConsumer();
+        Process p1 = sh("printf 'a\\r\\nb\\nc'");
+        Process p2 = sh("for i in 1 2 3; do echo $i; sleep 0.05; done");
+        pump.register(p1, p1.getInputStream(), StandardCharsets.UTF_8, null, first);
+        pump.register(p2, p2.getInputStream(), StandardCharsets.UTF_8, null, second);
+        assertTrue("first ended", first.endedLatch.await(10, TimeUnit.SECONDS));
+        assertTrue("second ended", second.endedLatch.await(10, TimeUnit.SECONDS));
+        assertEquals("first", Arrays.asList("a", "b", "c"), first.lines);
+        assertEquals("second", Arrays.asList("1", "2", "3"), second.lines);
+    }
+
+    @Test
+    public void outputAfterProcessExitDelivered() throws Exception {
+        ProcessOutputPump pump = new ProcessOutputPump(100);
+        CollectingConsumer consumer = new CollectingConsumer();
+        Process p = sh("exit 0");
+        p.waitFor();
+        // stands in for a pipe that a grandchild process still holds open
+        final PipedOutputStream grandchild = new PipedOutputStream();
+        PipedInputStream stream = new PipedInputStream(grandchild);
+        pump.register(p, stream, StandardCharsets.UTF_8, null, consumer);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                    grandchild.write("late\n".getBytes(StandardCharsets.UTF_8));
+                    grandchild.close();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        writer.start();
+        assertTrue("ended", consumer.endedLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("late"), consumer.lines);
+    }
+
+    @Test
+    public void samplingPrefilter() throws Exception {
+        ProcessOutputPump pump = new ProcessOutputPump(100);
+        CollectingConsumer consumer = new CollectingConsumer();
+        Process p = sh("echo start; for i in 1 2 3 4 5 6 7; do echo \"GET /_ah/health $i\"; done; echo end");
+        pump.register(p, p.getInputStream(), StandardCharsets.UTF_8, ProcessOutputPump.sampling("/_ah/health", 3), consumer);
+        assertTrue("ended", consumer.endedLatch.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("start", "GET /_ah/health 1", "GET /_ah/health 4", "GET /_ah/health 7", "end"), consumer.lines);
+    }
+
+    @Test
+    public void slowConsumerDoesNotBlockProcess() throws Exception {
+        ProcessOutputPump pump = new ProcessOutputPump(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        CollectingConsumer consumer = new CollectingConsumer() {
+            @Override
+            public void consume(String line) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.consume(line);
+            }
+        };
+        // more output than a pipe buffer holds, so the process can only exit if the pump keeps draining
+        final Process p = sh("i=0; while [ $i -lt 5000 ]; do echo 'line of output that is long enough to fill pipes'; i=$((i+1)); done");
+        pump.register(p, p.getInputStream(), StandardCharsets.UTF_8, null, consumer);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    p.waitFor();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        };
+        waiter.start();
+        waiter.join(TimeUnit.SECONDS.toMillis(30));
+        boolean exited = !waiter.isAlive();
+        release.countDown();
+        if (!exited) {
+            // destroy() closes the streams, so it is only called if the test has already failed
+            p.destroy();
+        }
+        assertTrue("process exited while consumer was blocked", exited);
+        assertTrue("ended", consumer.endedLatch.await(10, TimeUnit.SECONDS));
+        assertTrue("lines dropped: " + pump.getDroppedLineCount(), pump.getDroppedLineCount() > 0);
+        assertEquals("delivered + dropped", 5000, consumer.lines.size() + pump.getDroppedLineCount());
+    }
+}
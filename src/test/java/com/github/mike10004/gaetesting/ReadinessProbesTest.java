@@ -0,0 +1,117 @@
+package com.github.mike10004.gaetesting;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.google.common.net.HostAndPort;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadinessProbesTest {
+
+    private static boolean isReady(ReadinessProbe.Check check, HostAndPort host) {
+        try {
+            return check.isReady(host);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Test
+    public void tcpPort() throws Exception {
+        HostAndPort host;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            host = HostAndPort.fromParts("localhost", serverSocket.getLocalPort());
+            assertTrue("open", isReady(ReadinessProbes.tcpPort().newCheck(), host));
+        }
+        assertFalse("closed", isReady(ReadinessProbes.tcpPort().newCheck(), host));
+    }
+
+    @Test
+    public void portlessHostUsesDefaultPort() throws Exception {
+        assertEquals(HostAndPort.fromParts("localhost", GCloudBase.DEFAULT_SERVER_PORT), ReadinessProbes.probedHost(HostAndPort.fromString("localhost")));
+        assertEquals(HostAndPort.fromParts("localhost", 8181), ReadinessProbes.probedHost(HostAndPort.fromParts("localhost", 8181)));
+    }
+
+    @Test
+    public void httpGet() throws Exception {
+        WireMockServer server = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/ready")).willReturn(WireMock.aResponse().withStatus(200)));
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo("/starting")).willReturn(WireMock.aResponse().withStatus(503)));
+        server.start();
+        try {
+            HostAndPort host = HostAndPort.fromParts("localhost", server.port());
+            assertTrue("/ready", isReady(ReadinessProbes.httpGet("/ready", 200).newCheck(), host));
+            assertFalse("/starting", isReady(ReadinessProbes.httpGet("/starting", 200).newCheck(), host));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void logPatternAndComposite() throws Exception {
+        HostAndPort host = HostAndPort.fromParts("localhost", 1);
+        ReadinessProbe probe = ReadinessProbes.allOf(ReadinessProbes.logPattern(Pattern.compile("started in \\d+ms")));
+        ReadinessProbe.Check check = probe.newCheck();
+        check.lineLogged("starting");
+        assertFalse(check.isReady(host));
+        check.lineLogged("server started in 42ms");
+        assertTrue(check.isReady(host));
+        assertFalse("each check has its own state", probe.newCheck().isReady(host));
+        ReadinessProbe.Check withPort = ReadinessProbes.allOf(ReadinessProbes.devServerStartedLog(), ReadinessProbes.tcpPort()).newCheck();
+        withPort.lineLogged("INFO 2016-11-01 12:00:00,000 Dev App Server is now running");
+        assertFalse("port closed", isReady(withPort, host));
+    }
+
+    @Test
+    public void waiterWakesOnLogLine() throws Exception {
+        final ReadinessWaiter waiter = new ReadinessWaiter(ReadinessProbes.logPattern(Pattern.compile("ready")).newCheck(),
+                10, 1, 5, TimeUnit.SECONDS);
+        Process process = new ProcessBuilder("sleep", "30").start();
+        try {
+            ProcessOutputPump pump = new ProcessOutputPump(100);
+            Process echo = new ProcessBuilder("sh", "-c", "sleep 0.2; echo ready").start();
+            pump.register(echo, echo.getInputStream(), StandardCharsets.UTF_8, null, new ProcessOutputPump.LineConsumer() {
+                @Override
+                public void consume(String line) {
+                    waiter.lineLogged(line);
+                }
+
+                @Override
+                public void ended() {
+                }
+            });
+            long start = System.nanoTime();
+            assertEquals(ReadinessWaiter.Outcome.READY, waiter.await(process, HostAndPort.fromParts("localhost", 1)));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("woken before the first poll interval: " + elapsedMillis, elapsedMillis < 900);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    @Test
+    public void waiterTimesOutAndNoticesExit() throws Exception {
+        ReadinessProbe never = ReadinessProbes.logPattern(Pattern.compile("never"));
+        HostAndPort host = HostAndPort.fromParts("localhost", 1);
+        Process process = new ProcessBuilder("sleep", "30").start();
+        try {
+            ReadinessWaiter waiter = new ReadinessWaiter(never.newCheck(), 200, 10, 50, TimeUnit.MILLISECONDS);
+            assertEquals(ReadinessWaiter.Outcome.TIMED_OUT, waiter.await(process, host));
+        } finally {
+            process.destroy();
+        }
+        process.waitFor();
+        ReadinessWaiter waiter = new ReadinessWaiter(never.newCheck(), 10, 1, 1, TimeUnit.SECONDS);
+        assertEquals(ReadinessWaiter.Outcome.PROCESS_EXITED, waiter.await(process, host));
+    }
+}
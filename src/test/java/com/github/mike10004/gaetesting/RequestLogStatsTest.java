@@ -0,0 +1,93 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.Test;
+
+import java.util.SortedMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestLogStatsTest {
+
+    @Test
+    public void record() {
+        RequestLogStats stats = new RequestLogStats();
+        assertTrue(stats.record("INFO     2016-11-01 12:00:00,000 module.py:788] default: \"GET /foo?x=1 HTTP/1.1\" 200 1234"));
+        assertTrue(stats.record("INFO     2016-11-01 12:00:01,000 module.py:788] default: \"GET /foo HTTP/1.1\" 404 - 3ms"));
+        assertTrue(stats.record("INFO     2016-11-01 12:00:02,000 module.py:788] default: \"POST /bar HTTP/1.1\" 302 0 0.75s"));
+        assertTrue("health check", stats.record("INFO     2016-11-01 12:00:03,000 module.py:788] default: \"GET /_ah/health?IsLastSuccessful=yes HTTP/1.1\" 200 2"));
+        assertFalse(stats.record("INFO     2016-11-01 12:00:04,000 dispatcher.py:197] Starting module \"default\" running at: http://localhost:8080"));
+        SortedMap<String, RequestLogStats.EndpointStats> endpoints = stats.getEndpoints();
+        assertEquals("[GET /foo, POST /bar]", endpoints.keySet().toString());
+        RequestLogStats.EndpointStats foo = endpoints.get("GET /foo");
+        assertEquals(2, foo.getCount());
+        assertEquals("{200=1, 404=1}", foo.getStatusCounts().toString());
+        assertEquals(1, foo.getTimedCount());
+        assertEquals(5.0, foo.getLatencyPercentileMillis(50), 0.0);
+        RequestLogStats.EndpointStats bar = endpoints.get("POST /bar");
+        assertEquals(750.0, bar.getMaxLatencyMillis(), 0.0);
+        assertEquals(1000.0, bar.getLatencyPercentileMillis(95), 0.0);
+        String report = stats.toReport();
+        assertTrue(report, report.contains("GET /foo") && report.contains("POST /bar"));
+    }
+
+    @Test
+    public void nonMatchingAndMalformedLinesIgnored() {
+        RequestLogStats stats = new RequestLogStats();
+        assertFalse("empty", stats.record(""));
+        assertFalse("unquoted request", stats.record("INFO     2016-11-01 12:00:00,000 module.py:788] default: GET /foo HTTP/1.1 200 1234"));
+        assertFalse("lowercase method", stats.record("default: \"get /foo HTTP/1.1\" 200 1234"));
+        assertFalse("bad protocol", stats.record("default: \"GET /foo HTTP/x\" 200 1234"));
+        assertFalse("short status", stats.record("default: \"GET /foo HTTP/1.1\" 20 1234"));
+        assertFalse("no size", stats.record("default: \"GET /foo HTTP/1.1\" 200"));
+        assertFalse("no path", stats.record("default: \"GET HTTP/1.1\" 200 1234"));
+        assertTrue("no stats", stats.isEmpty());
+        assertEquals("report has header only", 1, stats.toReport().split(System.lineSeparator()).length);
+    }
+
+    @Test
+    public void percentileWithoutTimedRequests() {
+        RequestLogStats stats = new RequestLogStats();
+        assertTrue(stats.record("default: \"GET /foo HTTP/1.1\" 200 1234"));
+        RequestLogStats.EndpointStats foo = stats.getEndpoints().get("GET /foo");
+        assertEquals(1, foo.getCount());
+        assertEquals(0, foo.getTimedCount());
+        assertEquals(-1.0, foo.getLatencyPercentileMillis(0), 0.0);
+        assertEquals(-1.0, foo.getLatencyPercentileMillis(50), 0.0);
+        assertEquals(-1.0, foo.getLatencyPercentileMillis(100), 0.0);
+        assertEquals(-1.0, foo.getMaxLatencyMillis(), 0.0);
+        String report = stats.toReport();
+        assertTrue(report, report.contains(" - "));
+    }
+
+    @Test
+    public void percentileWithOneTimedRequest() {
+        RequestLogStats stats = new RequestLogStats();
+        // a duration equal to a bucket bound falls in that bucket
+        assertTrue(stats.record("default: \"GET /foo HTTP/1.1\" 200 1234 5ms"));
+        RequestLogStats.EndpointStats foo = stats.getEndpoints().get("GET /foo");
+        assertEquals(1, foo.getTimedCount());
+        assertEquals(5.0, foo.getLatencyPercentileMillis(0), 0.0);
+        assertEquals(5.0, foo.getLatencyPercentileMillis(50), 0.0);
+        assertEquals(5.0, foo.getLatencyPercentileMillis(100), 0.0);
+        assertEquals(5.0, foo.getMaxLatencyMillis(), 0.0);
+        assertTrue(stats.record("default: \"GET /slow HTTP/1.1\" 200 1234 6s"));
+        RequestLogStats.EndpointStats slow = stats.getEndpoints().get("GET /slow");
+        assertEquals("slower than the last bound", Double.POSITIVE_INFINITY, slow.getLatencyPercentileMillis(0), 0.0);
+        assertEquals(6000.0, slow.getMaxLatencyMillis(), 0.0);
+        String report = stats.toReport();
+        assertTrue(report, report.contains(">5000"));
+    }
+
+    @Test
+    public void healthChecksExcluded() {
+        RequestLogStats stats = new RequestLogStats();
+        assertTrue(stats.record("default: \"GET /_ah/health HTTP/1.1\" 200 2"));
+        assertTrue(stats.record("default: \"GET /_ah/health?IsLastSuccessful=no HTTP/1.1\" 503 - 12ms"));
+        assertTrue(stats.record("default: \"POST /_ah/health HTTP/1.1\" 200 2"));
+        assertTrue("only health checks recorded", stats.isEmpty());
+        assertTrue(stats.record("default: \"GET /_ah/healthz HTTP/1.1\" 200 2"));
+        assertEquals("[GET /_ah/healthz]", stats.getEndpoints().keySet().toString());
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.io.Files;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SdkArchiveExtractorTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static Map<String, byte[]> buildContents(String prefix, int numFiles) {
+        Random random = new Random(numFiles);
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        for (int i = 0; i < numFiles; i++) {
+            byte[] data = new byte[random.nextInt(3 * SdkArchiveExtractor.DEFAULT_BUFFER_SIZE)];
+            random.nextBytes(data);
+            contents.put(prefix + "lib/dir" + (i % 5) + "/file" + i + ".jar", data);
+        }
+        return contents;
+    }
+
+    private File writeZip(String baseDir, Map<String, byte[]> contents) throws IOException {
+        File zipFile = tmp.newFile();
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            if (baseDir != null) {
+                out.putNextEntry(new ZipEntry(baseDir));
+                out.closeEntry();
+            }
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return zipFile;
+    }
+
+    @Test
+    public void extract_parallel() throws Exception {
+        Map<String, byte[]> contents = buildContents("sdk-1.2.3/", 25);
+        File zipFile = writeZip("sdk-1.2.3/", contents);
+        for (int parallelism : new int[]{1, 4}) {
+            File destination = tmp.newFolder();
+            File root = new SdkArchiveExtractor(parallelism).extract(zipFile, destination);
+            assertEquals("root", new File(destination, "sdk-1.2.3/"), root);
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                File file = new File(destination, entry.getKey());
+                assertArrayEquals("contents of " + file, entry.getValue(), Files.toByteArray(file));
+            }
+            @SuppressWarnings("unchecked")
+            Collection<File> files = FileUtils.listFiles(destination, null, true);
+            assertEquals("num files with parallelism " + parallelism, contents.size(), files.size());
+        }
+    }
+
+    @Test
+    public void extract_noCommonBaseDirectory() throws Exception {
+        Map<String, byte[]> contents = buildContents("sdk-1.2.3/", 3);
+        contents.put("README", new byte[]{1, 2, 3});
+        File zipFile = writeZip("sdk-1.2.3/", contents);
+        File destination = tmp.newFolder();
+        File root = new SdkArchiveExtractor(2).extract(zipFile, destination);
+        assertEquals("root", destination, root);
+        assertTrue("README extracted", new File(destination, "README").isFile());
+    }
+
+    @Test
+    public void extract_doesNotOverwrite() throws Exception {
+        Map<String, byte[]> contents = buildContents("", 2);
+        File zipFile = writeZip(null, contents);
+        File destination = tmp.newFolder();
+        String firstName = contents.keySet().iterator().next();
+        File existing = new File(destination, firstName);
+        Files.createParentDirs(existing);
+        Files.write(new byte[]{42}, existing);
+        new SdkArchiveExtractor(2).extract(zipFile, destination);
+        assertArrayEquals("existing file untouched", new byte[]{42}, Files.toByteArray(existing));
+    }
+
+    @Test
+    public void partition_balanced() throws Exception {
+        List<ZipEntry> entries = new ArrayList<>();
+        for (long size : new long[]{50, 40, 30, 20, 10, 10}) {
+            ZipEntry entry = new ZipEntry("file" + size);
+            entry.setSize(size);
+            entries.add(entry);
+        }
+        List<List<ZipEntry>> buckets = SdkArchiveExtractor.partition(entries, 2);
+        assertEquals("num buckets", 2, buckets.size());
+        long[] totals = new long[2];
+        for (int i = 0; i < 2; i++) {
+            assertFalse("bucket empty", buckets.get(i).isEmpty());
+            for (ZipEntry entry : buckets.get(i)) {
+                totals[i] += entry.getSize();
+            }
+        }
+        assertEquals("bucket totals", totals[0], totals[1]);
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.mike10004.gaetesting;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SdkCacheStoreTest {
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static void createEntry(SdkCacheStore store, String key, String version, long size, long accessTime) throws Exception {
+        assertTrue(store.entryDirectory(key).mkdirs());
+        store.recordAccess(key, version, size, accessTime);
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() throws Exception {
+        SdkCacheStore store = new SdkCacheStore(tmp.newFolder(), 250);
+        createEntry(store, "aaaa", "1.9.38", 100, DAY);
+        createEntry(store, "bbbb", "1.9.44", 100, 2 * DAY);
+        store.recordAccess("aaaa", "1.9.38", 100, 3 * DAY);
+        createEntry(store, "cccc", "1.9.50", 100, 4 * DAY);
+        assertFalse("least recently used entry evicted", store.entryDirectory("bbbb").exists());
+        assertTrue("recently used entry kept", store.entryDirectory("aaaa").isDirectory());
+        assertTrue("new entry kept", store.entryDirectory("cccc").isDirectory());
+        assertNull("evicted version", store.lookUpVersion("1.9.44"));
+        assertEquals("kept version", "aaaa", store.lookUpVersion("1.9.38"));
+        assertEquals("index size", 2, store.readIndex().size());
+    }
+
+    @SuppressWarnings("try")
+    @Test
+    public void lockedEntryNotEvicted() throws Exception {
+        SdkCacheStore store = new SdkCacheStore(tmp.newFolder(), 150);
+        createEntry(store, "aaaa", "1.9.38", 100, DAY);
+        try (CacheDirectoryLock ignore = CacheDirectoryLock.acquire(store.entryLockFile("aaaa"), 1, TimeUnit.SECONDS)) {
+            createEntry(store, "bbbb", "1.9.44", 100, 2 * DAY);
+        }
+        assertTrue("locked entry kept", store.entryDirectory("aaaa").isDirectory());
+        assertTrue("new entry kept", store.entryDirectory("bbbb").isDirectory());
+        createEntry(store, "cccc", "1.9.50", 10, 3 * DAY);
+        assertFalse("unlocked entry evicted", store.entryDirectory("aaaa").exists());
+    }
+
+    @Test
+    public void recentlyAccessedEntryNotEvicted() throws Exception {
+        SdkCacheStore store = new SdkCacheStore(tmp.newFolder(), 150);
+        createEntry(store, "aaaa", "1.9.38", 100, DAY);
+        createEntry(store, "bbbb", "1.9.44", 100, DAY + HOUR);
+        assertTrue("entry within grace period kept", store.entryDirectory("aaaa").isDirectory());
+        assertEquals("index size", 2, store.readIndex().size());
+        createEntry(store, "cccc", "1.9.50", 10, DAY + 13 * HOUR);
+        assertFalse("entry past grace period evicted", store.entryDirectory("aaaa").exists());
+        assertTrue("entry within grace period kept", store.entryDirectory("bbbb").isDirectory());
+    }
+
+    @Test
+    public void recentAccessNotRewritten() throws Exception {
+        SdkCacheStore store = new SdkCacheStore(tmp.newFolder());
+        long accessTime = DAY;
+        store.recordAccess("aaaa", "1.9.38", 100, accessTime);
+        store.recordAccess("aaaa", "1.9.38", 100, accessTime + TimeUnit.SECONDS.toMillis(30));
+        assertEquals("access within a minute not recorded", accessTime, store.readIndex().get("aaaa").lastAccess);
+        store.recordAccess("aaaa", "1.9.38", 200, accessTime + TimeUnit.SECONDS.toMillis(40));
+        assertEquals("size change recorded", 200, store.readIndex().get("aaaa").sizeBytes);
+        long laterAccessTime = accessTime + TimeUnit.MINUTES.toMillis(2);
+        store.recordAccess("aaaa", "1.9.38", 200, laterAccessTime);
+        assertEquals("later access recorded", laterAccessTime, store.readIndex().get("aaaa").lastAccess);
+    }
+}
@@ -0,0 +1,129 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.net.HostAndPort;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedDevServerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakeDevServerFactory fakeServerFactory;
+
+    @Before
+    public void setUp() {
+        fakeServerFactory = new FakeDevServerFactory(temporaryFolder);
+    }
+
+    @Test
+    public void rulesShareOneServer() throws Throwable {
+        SharedDevServer shared = SharedDevServer.forKey("rulesShareOneServer", fakeServerFactory, DevServerPool.reuseOnRelease(), SharedDevServer.KEEP_UNTIL_EXIT, TimeUnit.MILLISECONDS);
+        assertSame(shared, SharedDevServer.forKey("rulesShareOneServer", fakeServerFactory, DevServerPool.replaceOnRelease(), 0, TimeUnit.MILLISECONDS));
+        DevServerRule first = new DevServerRule(shared);
+        DevServerRule second = new DevServerRule(shared);
+        first.before();
+        second.before();
+        assertEquals("users", 2, shared.getUserCount());
+        first.after();
+        second.after();
+        DevServerRule third = new DevServerRule(shared);
+        third.before();
+        try {
+            assertEquals("starts", 1, fakeServerFactory.getStartCount());
+        } finally {
+            third.after();
+        }
+        GCloudAsyncRunner runner = shared.lease();
+        assertTrue("kept running", runner.isRunning());
+        runner.kill();
+        shared.release(runner);
+    }
+
+    @Test
+    public void resetOnlyAfterLastUser() throws Exception {
+        final List<Integer> usersAtReset = new ArrayList<>();
+        final SharedDevServer[] holder = new SharedDevServer[1];
+        DevServerPool.Resetter resetter = new DevServerPool.Resetter() {
+            @Override
+            public boolean reset(GCloudAsyncRunner runner) {
+                usersAtReset.add(holder[0].getUserCount());
+                return true;
+            }
+        };
+        SharedDevServer shared = holder[0] = SharedDevServer.forKey("resetOnlyAfterLastUser", fakeServerFactory, resetter, SharedDevServer.KEEP_UNTIL_EXIT, TimeUnit.MILLISECONDS);
+        GCloudAsyncRunner first = shared.lease();
+        GCloudAsyncRunner second = shared.lease();
+        try {
+            shared.release(first);
+            assertEquals("resets while second user holds server", Collections.<Integer>emptyList(), usersAtReset);
+            assertTrue("still running for second user", second.isRunning());
+        } finally {
+            second.kill();
+            shared.release(second);
+        }
+        assertEquals("resets", 0, usersAtReset.size());
+        GCloudAsyncRunner third = shared.lease();
+        try {
+            shared.release(shared.lease());
+            assertEquals("resets while third user holds server", Collections.<Integer>emptyList(), usersAtReset);
+        } finally {
+            shared.release(third);
+        }
+        assertEquals("reset once after last user", Collections.singletonList(0), usersAtReset);
+        GCloudAsyncRunner runner = shared.lease();
+        runner.kill();
+        shared.release(runner);
+    }
+
+    @Test
+    public void idleServerStopped() throws Exception {
+        SharedDevServer shared = SharedDevServer.forKey("idleServerStopped", fakeServerFactory, DevServerPool.reuseOnRelease(), 50, TimeUnit.MILLISECONDS);
+        GCloudAsyncRunner runner = shared.lease();
+        shared.release(runner);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (runner.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse("stopped when idle", runner.isRunning());
+        GCloudAsyncRunner restarted = shared.lease();
+        try {
+            assertNotEquals(runner, restarted);
+            assertEquals("starts", 2, fakeServerFactory.getStartCount());
+        } finally {
+            restarted.kill();
+            shared.release(restarted);
+        }
+    }
+
+    @Test
+    public void configurationKey() throws Exception {
+        File appDir = temporaryFolder.newFolder();
+        HostAndPort host = HostAndPort.fromParts("localhost", 8181);
+        String key = GCloudAsyncRunnerFactory.builder(appDir).withHost(host).configurationKey();
+        assertEquals(key, GCloudAsyncRunnerFactory.builder(appDir).withHost(host).configurationKey());
+        assertNotEquals(key, GCloudAsyncRunnerFactory.builder(appDir).withHost(HostAndPort.fromParts("localhost", 8282)).configurationKey());
+        assertNotEquals("cloud sdk", key, GCloudAsyncRunnerFactory.builder(appDir).withHost(host).withCloudSdkIn(temporaryFolder.newFolder()).configurationKey());
+        assertNotEquals("appengine sdk", key, GCloudAsyncRunnerFactory.builder(appDir).withHost(host).withAppengineSdkIn(temporaryFolder.newFolder()).configurationKey());
+        assertNotEquals("staging-only appengine sdk", key, GCloudAsyncRunnerFactory.builder(appDir).withHost(host).withStagingOnlyAppengineSdk().configurationKey());
+        assertNotEquals("staging", key, GCloudAsyncRunnerFactory.builder(appDir).withHost(host).stagingInNewTempDirectory().configurationKey());
+        assertNotEquals("staging cache", key, GCloudAsyncRunnerFactory.builder(appDir).withHost(host).stagingInCache(new StagingCache(temporaryFolder.newFolder())).configurationKey());
+        GCloudAsyncRunnerFactory.Builder builder = GCloudAsyncRunnerFactory.builder(appDir).withHost(host);
+        builder.factory();
+        assertEquals("after building", key, builder.configurationKey());
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StagingCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void stagingDirectoryFor() throws Exception {
+        File appDir = temporaryFolder.newFolder();
+        File webXml = new File(appDir, "WEB-INF/web.xml");
+        Files.createParentDirs(webXml);
+        Files.write("<web-app/>", webXml, UTF_8);
+        StagingCache cache = new StagingCache(temporaryFolder.newFolder());
+
+        File stagingDir = cache.stagingDirectoryFor(appDir, "1.9.44", "1.7");
+        assertEquals(cache.getRootDirectory(), stagingDir.getParentFile());
+        assertEquals("same content", stagingDir, cache.stagingDirectoryFor(appDir, "1.9.44", "1.7"));
+        assertNotEquals("sdk version", stagingDir, cache.stagingDirectoryFor(appDir, "1.9.50", "1.7"));
+        assertNotEquals("java version", stagingDir, cache.stagingDirectoryFor(appDir, "1.9.44", "1.8"));
+
+        Files.write("generated", new File(appDir, ".appyamlgenerated"), UTF_8);
+        Files.write("runtime: java7", new File(appDir, "app.yaml"), UTF_8);
+        Files.write("<datastore-indexes/>", new File(appDir, "WEB-INF/datastore-indexes.xml"), UTF_8);
+        File generated = new File(appDir, "WEB-INF/appengine-generated/local_db.bin");
+        Files.createParentDirs(generated);
+        Files.write("db", generated, UTF_8);
+        assertEquals("staging output ignored", stagingDir, cache.stagingDirectoryFor(appDir, "1.9.44", "1.7"));
+
+        Files.write("<web-app></web-app>", webXml, UTF_8);
+        assertNotEquals("content changed", stagingDir, cache.stagingDirectoryFor(appDir, "1.9.44", "1.7"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        StagingCache cache = new StagingCache(temporaryFolder.newFolder(), 1500, 0);
+        File appDir1 = temporaryFolder.newFolder(), appDir2 = temporaryFolder.newFolder();
+        Files.write("one", new File(appDir1, "index.html"), UTF_8);
+        Files.write("two", new File(appDir2, "index.html"), UTF_8);
+        File stagingDir1 = cache.stagingDirectoryFor(appDir1, "1.9.44", "1.7");
+        stage(appDir1, stagingDir1, 1000);
+        assertEquals("restaged", stagingDir1, cache.stagingDirectoryFor(appDir1, "1.9.44", "1.7"));
+        Thread.sleep(10);
+        File stagingDir2 = cache.stagingDirectoryFor(appDir2, "1.9.44", "1.7");
+        stage(appDir2, stagingDir2, 1000);
+        Thread.sleep(10);
+        cache.stagingDirectoryFor(appDir2, "1.9.44", "1.7");
+        assertFalse("least recently used evicted", stagingDir1.exists());
+        assertTrue("most recently used kept", stagingDir2.isDirectory());
+    }
+
+    private static void stage(File appDir, File stagingDir, long stagedBytes) throws IOException {
+        Files.createParentDirs(StagingFingerprint.fileIn(stagingDir));
+        StagingFingerprint.compute(appDir, Collections.<String>emptyList(), stagedBytes).write(StagingFingerprint.fileIn(stagingDir));
+    }
+
+    @Test
+    public void unchangedFilesNotRehashed() throws Exception {
+        StagingCache cache = new StagingCache(temporaryFolder.newFolder());
+        File appDir = temporaryFolder.newFolder();
+        File index = new File(appDir, "index.html");
+        Files.write("one", index, UTF_8);
+        long lastModified = index.lastModified();
+        File stagingDir = cache.stagingDirectoryFor(appDir, "1.9.44", "1.7");
+
+        Files.write("uno", index, UTF_8);
+        assertTrue("index.setLastModified", index.setLastModified(lastModified));
+        assertEquals("same size and time, so not rehashed", stagingDir, cache.stagingDirectoryFor(appDir, "1.9.44", "1.7"));
+
+        assertTrue("index.setLastModified", index.setLastModified(lastModified + 5000));
+        assertNotEquals("time changed, so rehashed", stagingDir, cache.stagingDirectoryFor(appDir, "1.9.44", "1.7"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.io.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StagingFingerprintTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void matches() throws Exception {
+        File appDir = temporaryFolder.newFolder();
+        File webXml = new File(appDir, "WEB-INF/web.xml");
+        Files.createParentDirs(webXml);
+        Files.write("<web-app/>", webXml, UTF_8);
+        Files.write("hello", new File(appDir, "index.html"), UTF_8);
+        List<String> flags = Arrays.asList("--disable_update_check", "javaVersion=1.7");
+        File fingerprintFile = StagingFingerprint.fileIn(temporaryFolder.newFolder());
+        assertNull(StagingFingerprint.read(fingerprintFile));
+        StagingFingerprint.compute(appDir, flags, 1234).write(fingerprintFile);
+        StagingFingerprint fingerprint = StagingFingerprint.read(fingerprintFile);
+        assertEquals("stagedBytes", 1234, fingerprint.getStagedBytes());
+
+        assertTrue("unchanged", fingerprint.matches(appDir, flags));
+        assertFalse("flags changed", fingerprint.matches(appDir, Arrays.asList("--disable_update_check", "javaVersion=1.8")));
+
+        Files.write("<web-app/>", webXml, UTF_8);
+        assertTrue("webXml.setLastModified", webXml.setLastModified(webXml.lastModified() + 5000));
+        assertTrue("rewritten with same content", fingerprint.matches(appDir, flags));
+
+        Files.write("<web-app>", webXml, UTF_8);
+        assertFalse("same size, different content", fingerprint.matches(appDir, flags));
+
+        Files.write("<web-app/>", webXml, UTF_8);
+        Files.write("new", new File(appDir, "new.html"), UTF_8);
+        assertFalse("file added", fingerprint.matches(appDir, flags));
+    }
+}
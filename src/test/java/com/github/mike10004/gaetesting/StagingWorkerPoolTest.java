@@ -0,0 +1,110 @@
+package com.github.mike10004.gaetesting;
+
+import com.google.common.io.Files;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StagingWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private StagingWorkerPool pool;
+
+    /**
+     * Stands in for AppCfg. Writes the SDK root property and the JVM name to
+     * the file named by the first argument, or fails as the second argument says.
+     */
+    public static class FakeTool {
+
+        public static void main(String[] args) throws IOException {
+            if (args.length > 1 && "fail".equals(args[1])) {
+                throw new IllegalStateException("bad application");
+            }
+            if (args.length > 1 && "exit".equals(args[1])) {
+                System.out.println("giving up");
+                System.exit(3);
+            }
+            Files.write(System.getProperty("appengine.sdk.root") + "\n" + ManagementFactory.getRuntimeMXBean().getName(), new File(args[0]), UTF_8);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        pool = new StagingWorkerPool(1, FakeTool.class.getName());
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    private List<String> stage(File sdkRoot, String... extraArguments) throws IOException {
+        File output = temporaryFolder.newFile();
+        List<String> arguments = new ArrayList<>();
+        arguments.add(output.getAbsolutePath());
+        arguments.addAll(Arrays.asList(extraArguments));
+        pool.stage(sdkRoot, arguments);
+        return Files.readLines(output, UTF_8);
+    }
+
+    @Test
+    public void stage_sdkRootPerWorker() throws Exception {
+        String propertyBefore = System.getProperty("appengine.sdk.root");
+        File sdk1 = temporaryFolder.newFolder("sdk1"), sdk2 = temporaryFolder.newFolder("sdk2");
+        List<String> first = stage(sdk1);
+        assertEquals("sdk root", sdk1.getCanonicalPath(), first.get(0));
+        assertNotEquals("ran in another JVM", ManagementFactory.getRuntimeMXBean().getName(), first.get(1));
+        assertEquals("worker reused", first.get(1), stage(sdk1).get(1));
+        List<String> other = stage(sdk2);
+        assertEquals("sdk root", sdk2.getCanonicalPath(), other.get(0));
+        assertNotEquals("separate worker", first.get(1), other.get(1));
+        assertEquals(1, pool.getWorkerCount(sdk1));
+        assertEquals(1, pool.getWorkerCount(sdk2));
+        assertEquals("property of this JVM unchanged", propertyBefore, System.getProperty("appengine.sdk.root"));
+    }
+
+    @Test
+    public void stage_failure() throws Exception {
+        File sdk = temporaryFolder.newFolder();
+        String worker = stage(sdk).get(1);
+        try {
+            stage(sdk, "fail");
+            fail("should have thrown");
+        } catch (GCloudExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("bad application"));
+        }
+        assertEquals("worker kept after failed staging", worker, stage(sdk).get(1));
+    }
+
+    @Test
+    public void stage_workerExits() throws Exception {
+        File sdk = temporaryFolder.newFolder();
+        String worker = stage(sdk).get(1);
+        try {
+            stage(sdk, "exit");
+            fail("should have thrown");
+        } catch (GCloudExecutionException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("exited with code 3"));
+            assertTrue(e.getMessage(), e.getMessage().contains("giving up"));
+        }
+        assertEquals(0, pool.getWorkerCount(sdk));
+        assertNotEquals("worker replaced", worker, stage(sdk).get(1));
+    }
+}
@@ -29,12 +29,25 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipFile;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @SuppressWarnings("AppEngineForbiddenCode")
 public class SystemSdkResolverTest {
@@ -97,8 +110,9 @@ public class SystemSdkResolverTest {
                 }
 
                 @Override
-                protected void checkIntegrity(String version, File zipFile) throws IOException {
+                protected void checkIntegrity(String version, File zipFile, HashCode sha256) throws IOException {
                     assertArrayEquals("downloaded bytes", fakeZipBytes, Files.toByteArray(zipFile));
+                    assertEquals("sha256 computed during download", Hashing.sha256().hashBytes(fakeZipBytes), sha256);
                     HashCode hashCode = hash.hashBytes(Files.toByteArray(zipFile));
                     System.out.format("checked integrity of %s %s%n", hashCode, zipFile);
                 }
@@ -118,6 +132,165 @@ public class SystemSdkResolverTest {
         assertTrue("is directory: " + resultFile, resultFile.isDirectory());
     }
 
+    @Test
+    public void resolve_remote_badDownloadNotPublished() throws Exception {
+        String expectedPath = "/maven2/" + SystemSdkResolver.repoRelativePath(SDK_VERSION)
+                + "/" + SystemSdkResolver.formatFilename(SDK_VERSION);
+        byte[] fakeZipBytes = Resources.toByteArray(getFakeZipResource());
+        File cacheDir = tmp.newFolder();
+        final WireMockServer server = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo(expectedPath))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.ZIP.toString())
+                        .withBody(fakeZipBytes)));
+        server.start();
+        try {
+            AppEngineSdkResolver resolver = new TestResolver() {
+                @Override
+                protected File downloadRemoteFile(URI uri, File downloadDirectory) throws IOException {
+                    URI localhostUrl = swapSchemeAndHost(uri, "http", HostAndPort.fromParts("localhost", server.port()));
+                    return super.downloadRemoteFile(localhostUrl, downloadDirectory);
+                }
+            };
+            try {
+                resolver.resolve(cacheDir);
+                fail("fake archive should not match the known sha256sum");
+            } catch (IOException expected) {
+                System.out.format("expected: %s%n", expected);
+            }
+        } finally {
+            server.stop();
+        }
+        @SuppressWarnings("unchecked")
+        Collection<File> cacheDirContents = FileUtils.listFiles(cacheDir, null, true);
+        for (File file : cacheDirContents) {
+            assertTrue("unexpected file in cache dir after bad download: " + cacheDirContents, file.getName().endsWith(".lock"));
+        }
+    }
+
+    @Test
+    public void resolve_remote_reportsTransferProgress() throws Exception {
+        String expectedPath = "/maven2/" + SystemSdkResolver.repoRelativePath(SDK_VERSION)
+                + "/" + SystemSdkResolver.formatFilename(SDK_VERSION);
+        byte[] fakeZipBytes = Resources.toByteArray(getFakeZipResource());
+        final WireMockServer server = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo(expectedPath))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(200)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.ZIP.toString())
+                        .withBody(fakeZipBytes)));
+        LoggingTransferProgressListener listener = new LoggingTransferProgressListener();
+        server.start();
+        try {
+            AppEngineSdkResolver resolver = new TestResolver(tmp.newFolder(), listener) {
+                @Override
+                protected File downloadRemoteFile(URI uri, File downloadDirectory) throws IOException {
+                    URI localhostUrl = swapSchemeAndHost(uri, "http", HostAndPort.fromParts("localhost", server.port()));
+                    return super.downloadRemoteFile(localhostUrl, downloadDirectory);
+                }
+
+                @Override
+                protected void checkIntegrity(String version, File zipFile, HashCode sha256) throws IOException {
+                }
+            };
+            resolver.resolve(tmp.newFolder());
+        } finally {
+            server.stop();
+        }
+        Map<SystemSdkResolver.TransferPhase, TransferProgress> totals = listener.getTotals();
+        System.out.format("totals: %s%n", totals);
+        assertEquals("downloaded bytes", fakeZipBytes.length, totals.get(SystemSdkResolver.TransferPhase.DOWNLOAD).getBytesTransferred());
+        assertTrue("unpack reported", totals.containsKey(SystemSdkResolver.TransferPhase.UNPACK));
+    }
+
+    private static File storeEntryDirectory(File cacheDir, String archiveSha256) {
+        return new SdkCacheStore(new File(cacheDir, SdkCacheStore.DEFAULT_DIRECTORY_NAME)).entryDirectory(archiveSha256);
+    }
+
+    private static void stubRange(WireMockServer server, String path, byte[] content, long from, long to, int status) {
+        server.stubFor(WireMock.get(WireMock.urlPathEqualTo(path))
+                .withHeader(HttpHeaders.RANGE, WireMock.equalTo("bytes=" + from + "-" + to))
+                .willReturn(WireMock.aResponse()
+                        .withStatus(status)
+                        .withHeader(HttpHeaders.CONTENT_TYPE, MediaType.ZIP.toString())
+                        .withHeader(HttpHeaders.CONTENT_RANGE, "bytes " + from + "-" + to + "/" + content.length)
+                        .withBody(Arrays.copyOfRange(content, (int) from, (int) to + 1))));
+    }
+
+    @Test
+    public void resolve_remote_segmentedResume() throws Exception {
+        String expectedPath = "/maven2/" + SystemSdkResolver.repoRelativePath(SDK_VERSION)
+                + "/" + SystemSdkResolver.formatFilename(SDK_VERSION);
+        final byte[] fakeZipBytes = Resources.toByteArray(getFakeZipResource());
+        final int numSegments = 4;
+        long segmentSize = (fakeZipBytes.length + numSegments - 1) / numSegments;
+        File cacheDir = tmp.newFolder();
+        final WireMockServer server = new WireMockServer(WireMockConfiguration.wireMockConfig().dynamicPort());
+        stubRange(server, expectedPath, fakeZipBytes, 0, 0, 206);
+        for (int i = 0; i < numSegments; i++) {
+            long from = i * segmentSize, to = Math.min(fakeZipBytes.length, from + segmentSize) - 1;
+            stubRange(server, expectedPath, fakeZipBytes, from, to, i == 2 ? 500 : 206);
+        }
+        server.start();
+        final List<HttpEntity> entities = new ArrayList<>();
+        final ReportingProgressListener listener = new ReportingProgressListener() {
+            @Override
+            public void downloadingToTemporaryFile(HttpEntity entity, File destinationFile) {
+                entities.add(entity);
+            }
+        };
+        try {
+            TestResolver resolver = new TestResolver() {
+                @Override
+                protected File downloadRemoteFile(URI uri, File downloadDirectory) throws IOException {
+                    URI localhostUrl = swapSchemeAndHost(uri, "http", HostAndPort.fromParts("localhost", server.port()));
+                    return super.downloadRemoteFile(localhostUrl, downloadDirectory);
+                }
+
+                @Override
+                protected SegmentedDownloader createSegmentedDownloader() {
+                    return new SegmentedDownloader(new Supplier<CloseableHttpClient>() {
+                        @Override
+                        public CloseableHttpClient get() {
+                            return HttpClients.createSystem();
+                        }
+                    }, listener, getDownloadSegments(), 64 * 1024);
+                }
+
+                @Override
+                protected void checkIntegrity(String version, File zipFile, HashCode sha256) throws IOException {
+                    assertEquals("sha256", Hashing.sha256().hashBytes(fakeZipBytes), sha256);
+                }
+            };
+            resolver.setDownloadSegments(numSegments);
+            File entryDir = storeEntryDirectory(cacheDir, DownloadingSdkResolver.APP_ENGINE_SDK_ZIP_SHA256SUMS.get(SDK_VERSION));
+            File partFile = new File(entryDir, SystemSdkResolver.formatFilename(SDK_VERSION) + ".part");
+            try {
+                resolver.resolve(cacheDir);
+                fail("segment 2 should have failed");
+            } catch (IOException expected) {
+                System.out.format("expected: %s%n", expected);
+            }
+            assertTrue("progress persisted", SegmentedDownloader.progressFileFor(partFile).isFile());
+            long from = 2 * segmentSize, to = Math.min(fakeZipBytes.length, from + segmentSize) - 1;
+            stubRange(server, expectedPath, fakeZipBytes, from, to, 206);
+            File sdkRoot = resolver.resolve(cacheDir);
+            assertTrue("is directory: " + sdkRoot, sdkRoot.isDirectory());
+            assertArrayEquals("downloaded bytes", fakeZipBytes, Files.toByteArray(new File(entryDir, SystemSdkResolver.formatFilename(SDK_VERSION))));
+            assertFalse("progress file deleted", SegmentedDownloader.progressFileFor(partFile).exists());
+            assertEquals("downloads started", 2, entities.size());
+            for (HttpEntity entity : entities) {
+                assertNotNull("entity", entity);
+                assertEquals("entity length", fakeZipBytes.length, entity.getContentLength());
+            }
+            assertEquals("segment 0 requests", 1, server.findAll(WireMock.getRequestedFor(WireMock.urlPathEqualTo(expectedPath))
+                    .withHeader(HttpHeaders.RANGE, WireMock.equalTo("bytes=0-" + (segmentSize - 1)))).size());
+        } finally {
+            server.stop();
+        }
+    }
+
     private URL getFakeZipResource() throws FileNotFoundException {
         String zipResourcePath = "/fake-appengine-java-sdk-1.9.44.zip";
         URL zipResource = getClass().getResource(zipResourcePath);
@@ -154,6 +327,192 @@ public class SystemSdkResolverTest {
         assertTrue("is directory: " + sdkRoot, sdkRoot.isDirectory());
     }
 
+    @Test
+    public void resolve_local_importStrategies() throws Exception {
+        final File localMavenRepo = tmp.newFolder();
+        File file = localMavenRepo.toPath().resolve(SystemSdkResolver.repoRelativePath(SDK_VERSION))
+                .resolve(SystemSdkResolver.formatFilename(SDK_VERSION)).toFile();
+        Files.createParentDirs(file);
+        Resources.asByteSource(getFakeZipResource()).copyTo(Files.asByteSink(file));
+        HashCode archiveHash = Files.asByteSource(file).hash(Hashing.sha256());
+        for (SystemSdkResolver.ArchiveImportStrategy strategy : SystemSdkResolver.ArchiveImportStrategy.values()) {
+            SystemSdkResolver sdkResolver = new SystemSdkResolver(SDK_VERSION) {
+                @Override
+                protected File downloadRemoteFile(URI uri, File downloadDestination) throws IOException {
+                    throw new IOException("illegal state");
+                }
+
+                @Override
+                protected File getLocalMavenRepoPath() {
+                    return localMavenRepo;
+                }
+            };
+            sdkResolver.setArchiveImportStrategy(strategy);
+            File cacheDir = tmp.newFolder();
+            File sdkRoot = sdkResolver.resolve(cacheDir);
+            assertTrue(strategy + " is directory: " + sdkRoot, sdkRoot.isDirectory());
+            File imported = new File(storeEntryDirectory(cacheDir, archiveHash.toString()), file.getName());
+            assertEquals(strategy + " shares storage with original", strategy != SystemSdkResolver.ArchiveImportStrategy.COPY,
+                    java.nio.file.Files.isSameFile(imported.toPath(), file.toPath()));
+            assertEquals(strategy + " symlink", strategy == SystemSdkResolver.ArchiveImportStrategy.SYMLINK,
+                    java.nio.file.Files.isSymbolicLink(imported.toPath()));
+            assertEquals(strategy + " original intact", archiveHash, Files.asByteSource(file).hash(Hashing.sha256()));
+        }
+    }
+
+    @Test
+    public void resolve_local_linkedImportNotHashed() throws Exception {
+        final File localMavenRepo = tmp.newFolder();
+        File file = localMavenRepo.toPath().resolve(SystemSdkResolver.repoRelativePath(SDK_VERSION))
+                .resolve(SystemSdkResolver.formatFilename(SDK_VERSION)).toFile();
+        Files.createParentDirs(file);
+        Resources.asByteSource(getFakeZipResource()).copyTo(Files.asByteSink(file));
+        HashCode archiveHash = Files.asByteSource(file).hash(Hashing.sha256());
+        final AtomicInteger hashCount = new AtomicInteger();
+        class HashCountingResolver extends SystemSdkResolver {
+            HashCountingResolver() {
+                super(SDK_VERSION);
+            }
+
+            @Override
+            protected File downloadRemoteFile(URI uri, File downloadDestination) throws IOException {
+                throw new IOException("illegal state");
+            }
+
+            @Override
+            protected File getLocalMavenRepoPath() {
+                return localMavenRepo;
+            }
+
+            @Override
+            protected HashCode hashArchive(File sdkArchive) throws IOException {
+                hashCount.incrementAndGet();
+                return super.hashArchive(sdkArchive);
+            }
+        }
+        // the first import hashes the archive and records the hash
+        File cacheDir = tmp.newFolder();
+        File sdkRoot = new HashCountingResolver().resolve(cacheDir);
+        assertEquals("hashed on first import", 1, hashCount.get());
+        File entryDir = storeEntryDirectory(cacheDir, archiveHash.toString());
+        FileUtils.deleteDirectory(entryDir);
+        assertEquals("sdk root after re-import", sdkRoot, new HashCountingResolver().resolve(cacheDir));
+        assertEquals("re-import uses recorded hash", 1, hashCount.get());
+        // a checksum file next to the archive is not trusted, even a newer one
+        String wrongHash = Hashing.sha256().hashString("something else", StandardCharsets.UTF_8).toString();
+        Files.asCharSink(new File(file.getParentFile(), file.getName() + ".sha256"), StandardCharsets.US_ASCII).write(wrongHash);
+        File otherCacheDir = tmp.newFolder();
+        new HashCountingResolver().resolve(otherCacheDir);
+        assertEquals("import into new cache hashes", 2, hashCount.get());
+        assertTrue("imported under actual hash", new File(storeEntryDirectory(otherCacheDir, archiveHash.toString()), file.getName()).isFile());
+        assertFalse("not imported under checksum file hash", storeEntryDirectory(otherCacheDir, wrongHash).exists());
+    }
+
+    @Test
+    public void resolve_warmCacheUsesManifest() throws Exception {
+        File cacheDir = tmp.newFolder();
+        File legacyArchive = new File(cacheDir, SystemSdkResolver.formatFilename(SDK_VERSION));
+        Resources.asByteSource(getFakeZipResource()).copyTo(Files.asByteSink(legacyArchive));
+        HashCode archiveHash = Files.asByteSource(legacyArchive).hash(Hashing.sha256());
+        File archive = new File(storeEntryDirectory(cacheDir, archiveHash.toString()), legacyArchive.getName());
+        AppEngineSdkResolver sdkResolver = new SystemSdkResolver(SDK_VERSION) {
+            @Override
+            protected File downloadRemoteFile(URI uri, File downloadDestination) throws IOException {
+                throw new IOException("illegal state");
+            }
+        };
+        File sdkRoot = sdkResolver.resolve(cacheDir);
+        assertTrue("archive imported into store: " + archive, archive.isFile());
+        assertTrue("manifest written", SdkUnpackManifest.manifestFileFor(archive).isFile());
+        File releaseNotes = new File(sdkRoot, "RELEASE_NOTES");
+        assertTrue("unpacked: " + releaseNotes, releaseNotes.isFile());
+        assertTrue("deleted", releaseNotes.delete());
+        assertEquals("sdk root on warm resolve", sdkRoot, sdkResolver.resolve(cacheDir));
+        assertFalse("warm resolve should not re-check entries", releaseNotes.exists());
+        assertTrue("touched", archive.setLastModified(archive.lastModified() - 60000));
+        assertEquals("sdk root after touching archive", sdkRoot, sdkResolver.resolve(cacheDir));
+        assertFalse("unchanged archive content should not trigger unpack", releaseNotes.exists());
+        assertTrue("manifest deleted", SdkUnpackManifest.manifestFileFor(archive).delete());
+        assertEquals("sdk root without manifest", sdkRoot, sdkResolver.resolve(cacheDir));
+        assertTrue("restored by full check", releaseNotes.isFile());
+    }
+
+    @Test
+    public void resolve_stagingEntriesOnly() throws Exception {
+        File cacheDir = tmp.newFolder();
+        Resources.asByteSource(getFakeZipResource()).copyTo(Files.asByteSink(new File(cacheDir, SystemSdkResolver.formatFilename(SDK_VERSION))));
+        SystemSdkResolver stagingResolver = new SystemSdkResolver(SDK_VERSION) {
+            @Override
+            protected File downloadRemoteFile(URI uri, File downloadDestination) throws IOException {
+                throw new IOException("illegal state");
+            }
+        };
+        stagingResolver.setExtractedEntries(SystemSdkResolver.STAGING_ENTRIES);
+        File sdkRoot = stagingResolver.resolve(cacheDir);
+        assertTrue("schema extracted", new File(sdkRoot, "docs/backends.xsd").isFile());
+        assertFalse("javadoc not extracted", new File(sdkRoot, "docs/tools").exists());
+        assertFalse("demos not extracted", new File(sdkRoot, "demos").exists());
+        assertFalse("release notes not extracted", new File(sdkRoot, "RELEASE_NOTES").exists());
+        assertEquals("sdk root on warm resolve", sdkRoot, stagingResolver.resolve(cacheDir));
+        SystemSdkResolver fullResolver = new SystemSdkResolver(SDK_VERSION) {
+            @Override
+            protected File downloadRemoteFile(URI uri, File downloadDestination) throws IOException {
+                throw new IOException("illegal state");
+            }
+        };
+        assertEquals("sdk root of full resolve", sdkRoot, fullResolver.resolve(cacheDir));
+        assertTrue("remaining entries extracted", new File(sdkRoot, "RELEASE_NOTES").isFile());
+        assertTrue("demos extracted", new File(sdkRoot, "demos").isDirectory());
+    }
+
+    @Test
+    public void resolve_concurrentCallersUnpackOnce() throws Exception {
+        final File localMavenRepo = tmp.newFolder();
+        File file = localMavenRepo.toPath().resolve(SystemSdkResolver.repoRelativePath(SDK_VERSION))
+                .resolve(SystemSdkResolver.formatFilename(SDK_VERSION)).toFile();
+        Files.createParentDirs(file);
+        Resources.asByteSource(getFakeZipResource()).copyTo(Files.asByteSink(file));
+        final AtomicInteger archiveResolutions = new AtomicInteger();
+        final AppEngineSdkResolver sdkResolver = new SystemSdkResolver(SDK_VERSION) {
+            @Override
+            protected File downloadRemoteFile(URI uri, File downloadDestination) throws IOException {
+                throw new IOException("illegal state");
+            }
+
+            @Override
+            protected File getLocalMavenRepoPath() {
+                return localMavenRepo;
+            }
+
+            @Override
+            protected File resolveSdkArchive(URI uri, File downloadDestination) throws IOException {
+                archiveResolutions.incrementAndGet();
+                return super.resolveSdkArchive(uri, downloadDestination);
+            }
+        };
+        final File cacheDir = tmp.newFolder();
+        int numCallers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(numCallers);
+        try {
+            List<Future<File>> results = new ArrayList<>();
+            for (int i = 0; i < numCallers; i++) {
+                results.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        return sdkResolver.resolve(cacheDir);
+                    }
+                }));
+            }
+            File first = results.get(0).get();
+            for (Future<File> result : results) {
+                assertEquals("sdk root", first, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("archive resolutions", 1, archiveResolutions.get());
+    }
+
     private static int countEntriesInZip(File zipSourceFile) throws IOException {
         try (ZipFile zf = new ZipFile(zipSourceFile)) {
             return zf.size();